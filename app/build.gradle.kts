@@ -17,6 +17,21 @@ android {
 
         testInstrumentationRunner = "androidx.test.runner.AndroidJUnitRunner"
 
+        // Para probar las subidas contra el emulador local de Storage: -PuseFirebaseEmulator=true
+        buildConfigField(
+            "boolean",
+            "USE_FIREBASE_EMULATOR",
+            (project.findProperty("useFirebaseEmulator") ?: "false").toString()
+        )
+
+        // Compactacion del historial antiguo en buckets: -PcompactMessages=true.
+        // La lectura de buckets esta siempre activa, por si otro cliente ya ha compactado
+        buildConfigField(
+            "boolean",
+            "COMPACT_MESSAGES",
+            (project.findProperty("compactMessages") ?: "false").toString()
+        )
+
 
     }
 
@@ -35,18 +50,26 @@ android {
     }
     buildFeatures {
         viewBinding = true
+        buildConfig = true
     }
 }
 
 dependencies {
 
+    implementation(project(":core"))
+
     implementation("com.github.bumptech.glide:glide:4.16.0")
+    implementation("com.github.bumptech.glide:recyclerview-integration:4.16.0") {
+        isTransitive = false
+    }
+    annotationProcessor("com.github.bumptech.glide:compiler:4.16.0")
 
     implementation("de.hdodenhof:circleimageview:3.1.0")
 
     implementation("com.google.android.gms:play-services-auth:21.0.0")
     implementation("com.google.firebase:firebase-auth")
     implementation("com.google.firebase:firebase-firestore")
+    implementation("com.google.firebase:firebase-storage")
     implementation("com.google.firebase:firebase-analytics")
     implementation(platform("com.google.firebase:firebase-bom:34.5.0"))
     implementation(libs.appcompat)
@@ -55,6 +78,10 @@ dependencies {
     implementation(libs.constraintlayout)
     implementation(libs.navigation.fragment)
     implementation(libs.navigation.ui)
+    implementation(libs.lifecycle.process)
+    implementation(libs.exifinterface)
+    implementation(libs.asynclayoutinflater)
+    implementation(libs.core.splashscreen)
     testImplementation(libs.junit)
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
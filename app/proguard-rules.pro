@@ -18,4 +18,11 @@
 
 # If you keep the line number information, uncomment this to
 # hide the original source file name.
-#-renamesourcefileattribute SourceFile
\ No newline at end of file
+#-renamesourcefileattribute SourceFile
+# Message, User y los buckets se convierten con MessageMapper/UserMapper, sin reflexion.
+# Conversation todavia se lee con toObject(): necesita su constructor vacio y sus getters/setters
+-keepclassmembers class models.Conversation {
+    public <init>();
+    public *** get*();
+    public void set*(***);
+}
@@ -3,45 +3,74 @@ package activities;
 import static android.view.View.GONE;
 import static android.view.View.VISIBLE;
 
+import android.content.res.Configuration;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Parcelable;
 import android.text.Editable;
 import android.text.TextUtils;
 import android.util.Log;
+import android.view.ViewTreeObserver;
 import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.app.AppCompatDelegate;
+import androidx.lifecycle.Lifecycle;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.bumptech.glide.Glide;
 import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.CollectionReference;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.ListenerRegistration;
-import com.google.firebase.firestore.Query;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import adapters.MessageAdapter;
+import adapters.MessageViewCache;
 import daniel.chatapp.R;
+import models.Conversation;
 import models.Message;
+import utils.AvatarLoader;
+import utils.ChatIds;
+import utils.ChatRepository;
+import utils.GroupChats;
+import utils.LatencyTracker;
 import utils.LightSensorManager;
+import utils.MessageOutbox;
+import utils.PresenceManager;
+import utils.TimestampFormatter;
+import utils.TypingIndicator;
+import utils.UnreadCounter;
 
 
-public class ChatActivity extends AppCompatActivity {
+public class ChatActivity extends AppCompatActivity implements MessageOutbox.OutboxListener,
+        ChatRepository.ChatObserver {
+
+    // Al acercarse al principio de la lista se piden los mensajes anteriores
+    private static final int PREFETCH_THRESHOLD = 5;
+    // Burbujas de cada tipo que se inflan en segundo plano al abrir el chat
+    private static final int BUBBLES_TO_WARM = 8;
+    // Filas fuera de pantalla que se conservan sin volver a hacer bind al cambiar de sentido el scroll
+    private static final int ITEM_VIEW_CACHE_SIZE = 6;
 
     // UI
 
     private TextView tvReceivedName;
+    private TextView tvReceiverStatus;
     private TextView tvNoMessages;
     private ImageView ivReceiverPhoto;
     private ImageView btnBack;
     private ImageView btnSend;
+    private ImageView btnAttach;
     private EditText etMessage;
     private RecyclerView recyclerViewMessages;
 
@@ -51,6 +80,17 @@ public class ChatActivity extends AppCompatActivity {
     private FirebaseAuth mAuth;
     private FirebaseFirestore bd;
 
+    // Bandeja de salida
+    private MessageOutbox outbox;
+
+    // Selector de imagen del sistema; no necesita permisos de almacenamiento
+    private final ActivityResultLauncher<String> seleccionarImagen =
+            registerForActivityResult(new ActivityResultContracts.GetContent(), uri -> {
+                if (uri != null) {
+                    enviarImagen(uri);
+                }
+            });
+
     //Datos
 
     private String currentUserId;
@@ -58,30 +98,74 @@ public class ChatActivity extends AppCompatActivity {
     private String receiverName;
     private String chatId;
     private String receiverPhotoUrl;
+    // En un grupo no hay receptor: receiverName es el titulo y los miembros salen del documento del chat
+    private boolean grupo;
+    private ListenerRegistration grupoListener;
+    private int miembros = 0;
 
-    private List<Message> messageList;
+    private ChatRepository chatRepository;
+    private ChatRepository.ChatSession chatSession;
     private MessageAdapter messageAdapter;
-    private ListenerRegistration messageListener;
-
+    private LinearLayoutManager layoutManager;
+    private MessageViewCache messageViewCache;
+
+    // Resultado de busqueda en el que se abre el chat; se consume en el primer pintado en que aparece
+    private String mensajeBuscadoId;
+    private long mensajeBuscadoTimestamp;
+    private boolean restaurandoScroll = false;
+    // Hay no leidos sin poner a cero: al abrir no se sabe cuantos hay, luego solo los trae onMessagesReceived
+    private boolean noLeidosPendientes = true;
+
+    // Indicador de escritura y presencia del otro usuario
+    private TypingIndicator typingIndicator;
+    private ListenerRegistration presenceListener;
+    private boolean receptorEscribiendo = false;
+    private long receiverLastSeen = 0;
+    private final Handler estadoHandler = new Handler(Looper.getMainLooper());
+    private final Runnable refrescarEstadoRunnable = this::actualizarEstadoReceptor;
 
     // Sensor
     private LightSensorManager sensorManager;
+    private LightSensorManager.OnThemeChangeListener temaListener;
+    private int temaAplicado;
+
+    // Latencias: desde onCreate hasta el primer frame con mensajes, una vez por apertura
+    private final LatencyTracker latencias = LatencyTracker.getInstance();
+    private long inicioApertura;
+    private boolean primerFrameMedido = false;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        inicioApertura = LatencyTracker.now();
         super.onCreate(savedInstanceState);
         aplicarTema();
+        TimestampFormatter.getInstance().setYesterdayLabel(getString(R.string.yesterday));
         setContentView(R.layout.activity_chat);
+        temaAplicado = getResources().getConfiguration().uiMode & Configuration.UI_MODE_NIGHT_MASK;
 
         mAuth = FirebaseAuth.getInstance();
         bd = FirebaseFirestore.getInstance();
+        outbox = MessageOutbox.getInstance(this);
         currentUserId = mAuth.getCurrentUser().getUid();
 
-        receiverUserId = getIntent().getStringExtra("receiverUserId");
-        receiverName = getIntent().getStringExtra("receiverName");
-        receiverPhotoUrl = getIntent().getStringExtra("receiverPhotoUrl");
+        String groupChatId = getIntent().getStringExtra("groupChatId");
+        grupo = ChatIds.isGroup(groupChatId);
+        if (grupo) {
+            receiverName = getIntent().getStringExtra("groupTitle");
+        } else {
+            receiverUserId = getIntent().getStringExtra("receiverUserId");
+            receiverName = getIntent().getStringExtra("receiverName");
+            receiverPhotoUrl = getIntent().getStringExtra("receiverPhotoUrl");
+        }
+        mensajeBuscadoId = getIntent().getStringExtra("searchMessageId");
+        mensajeBuscadoTimestamp = getIntent().getLongExtra("searchTimestamp", 0);
+        if (savedInstanceState != null) {
+            // El salto al resultado de busqueda ya se hizo antes de recrear la pantalla
+            mensajeBuscadoId = null;
+            restaurandoScroll = true;
+        }
 
-        if (receiverUserId == null || receiverName == null) {
+        if (receiverName == null || (!grupo && receiverUserId == null)) {
             Toast.makeText(this, "Error al cargar el chat", Toast.LENGTH_SHORT).show();
             finish();
             return;
@@ -90,14 +174,30 @@ public class ChatActivity extends AppCompatActivity {
         inicializarVista();
         mostarBotonEnviar();
 
-        chatId = generarChatId(currentUserId, receiverUserId);
+        chatId = grupo ? groupChatId : ChatIds.chatId(currentUserId, receiverUserId);
 
-        iniciarRecyclerView();
+        // Escritura y presencia son de chats uno a uno: en un grupo serian escrituras de todos en todos
+        if (!grupo) {
+            typingIndicator = new TypingIndicator(bd, chatId, currentUserId, receiverUserId, isTyping -> {
+                receptorEscribiendo = isTyping;
+                actualizarEstadoReceptor();
+            });
+            typingIndicator.start();
+            escucharPresencia();
+        }
 
-        cargarMensajes();
+        iniciarRecyclerView();
+        if (grupo) {
+            escucharGrupo();
+        }
+        outbox.addListener(this);
 
-        btnBack.setOnClickListener(v -> finish());
-        btnSend.setOnClickListener(v -> enviarMensaje());
+        // La sesion del chat vive fuera de la Activity: al rotar se recupera ya cargada, sin lecturas
+        chatRepository = ChatRepository.getInstance(this);
+        chatSession = chatRepository.acquire(chatId, currentUserId, this);
+        if (mensajeBuscadoId != null) {
+            chatSession.loadFrom(mensajeBuscadoId, mensajeBuscadoTimestamp);
+        }
 
         inicializarSensor();
 
@@ -108,10 +208,12 @@ public class ChatActivity extends AppCompatActivity {
     private void inicializarVista() {
 
         tvReceivedName = findViewById(R.id.tvReceiverName);
+        tvReceiverStatus = findViewById(R.id.tvReceiverStatus);
         tvNoMessages = findViewById(R.id.tvNoMessages);
         ivReceiverPhoto = findViewById(R.id.ivReceiverPhoto);
         btnBack = findViewById(R.id.btnBack);
         btnSend = findViewById(R.id.btnSend);
+        btnAttach = findViewById(R.id.btnAttach);
         etMessage = findViewById(R.id.etMessage);
         recyclerViewMessages = findViewById(R.id.recyclerViewMessages);
 
@@ -119,18 +221,118 @@ public class ChatActivity extends AppCompatActivity {
         tvReceivedName.setText(receiverName);
 
         if (receiverPhotoUrl != null && !receiverPhotoUrl.isEmpty()) {
-            if (!isFinishing() && !isDestroyed()) {
-                Glide.with(this)
-                        .load(receiverPhotoUrl)
-                        .placeholder(R.drawable.ic_chat_logo)
-                        .error(R.drawable.ic_chat_logo)
-                        .into(ivReceiverPhoto);
-            }
+            AvatarLoader.load(ivReceiverPhoto, receiverPhotoUrl,
+                    getResources().getDimensionPixelSize(R.dimen.avatar_chat_header));
         }
 
         btnSend.setEnabled(false);
         btnSend.setAlpha(0.5f);
 
+        btnBack.setOnClickListener(v -> finish());
+        btnSend.setOnClickListener(v -> enviarMensaje());
+        btnAttach.setOnClickListener(v -> seleccionarImagen.launch("image/*"));
+
+    }
+
+    // El manifiesto declara uiMode: el cambio de tema llega aqui en vez de recrear la Activity,
+    // asi que los listeners y los mensajes cargados se conservan y no se vuelve a leer nada
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+        int nocheAnterior = temaAplicado;
+        super.onConfigurationChanged(newConfig);
+        temaAplicado = newConfig.uiMode & Configuration.UI_MODE_NIGHT_MASK;
+        if (temaAplicado != nocheAnterior && messageAdapter != null) {
+            reconstruirVista();
+        }
+    }
+
+    // Vuelve a inflar la pantalla con los colores del nuevo tema y engancha el adapter que ya existe
+    private void reconstruirVista() {
+        String borrador = etMessage.getText().toString();
+        int cursor = etMessage.getSelectionEnd();
+        Parcelable scroll = layoutManager.onSaveInstanceState();
+
+        // Las burbujas pre-infladas tienen los colores del tema anterior
+        messageViewCache.release();
+        messageAdapter.setViewCache(null);
+        // La vista anterior no debe seguir colgada del adapter (y con ella toda la jerarquia vieja)
+        recyclerViewMessages.clearOnScrollListeners();
+        recyclerViewMessages.setAdapter(null);
+
+        setContentView(R.layout.activity_chat);
+        inicializarVista();
+        // El borrador se repone antes del TextWatcher para no mandar un "escribiendo…" falso
+        etMessage.setText(borrador);
+        etMessage.setSelection(Math.min(cursor, etMessage.length()));
+        boolean hayTexto = !borrador.trim().isEmpty();
+        btnSend.setEnabled(hayTexto);
+        btnSend.setAlpha(hayTexto ? 1.0f : 0.5f);
+        mostarBotonEnviar();
+        configurarRecyclerView();
+        layoutManager.onRestoreInstanceState(scroll);
+
+        actualizarEstadoReceptor();
+        actualizarSinMensajes();
+    }
+
+    private void escucharPresencia() {
+        presenceListener = bd.collection("users")
+                .document(receiverUserId)
+                .addSnapshotListener((value, error) -> {
+                    if (error != null) {
+                        Log.e("CHAT", "Error al escuchar presencia: " + error.getMessage());
+                        return;
+                    }
+                    Long lastSeen = value != null ? value.getLong("lastSeen") : null;
+                    receiverLastSeen = lastSeen != null ? lastSeen : 0;
+                    actualizarEstadoReceptor();
+                });
+    }
+
+    // Un unico listener sobre el documento del grupo: titulo, miembros y sus nombres y fotos para
+    // las burbujas, sin leer el usuario de cada mensaje
+    private void escucharGrupo() {
+        grupoListener = bd.collection("chats")
+                .document(chatId)
+                .addSnapshotListener((value, error) -> {
+                    if (error != null) {
+                        Log.e("CHAT", "Error al escuchar el grupo: " + error.getMessage());
+                        return;
+                    }
+                    if (value == null || !value.exists()) {
+                        return;
+                    }
+                    Conversation conversation = value.toObject(Conversation.class);
+                    if (conversation == null) {
+                        return;
+                    }
+                    if (conversation.getTitle() != null) {
+                        receiverName = conversation.getTitle();
+                        tvReceivedName.setText(receiverName);
+                    }
+                    miembros = conversation.getParticipants() != null ? conversation.getParticipants().size() : 0;
+                    messageAdapter.setSenders(conversation.getParticipantNames(), conversation.getParticipantPhotos());
+                    actualizarEstadoReceptor();
+                });
+    }
+
+    // "escribiendo…" tiene prioridad sobre la presencia
+    private void actualizarEstadoReceptor() {
+        estadoHandler.removeCallbacks(refrescarEstadoRunnable);
+        if (grupo) {
+            tvReceiverStatus.setText(miembros + " participantes");
+            tvReceiverStatus.setVisibility(miembros > 0 ? VISIBLE : GONE);
+        } else if (receptorEscribiendo) {
+            tvReceiverStatus.setText("escribiendo…");
+            tvReceiverStatus.setVisibility(VISIBLE);
+        } else if (receiverLastSeen > 0) {
+            tvReceiverStatus.setText(PresenceManager.formatPresence(receiverLastSeen));
+            tvReceiverStatus.setVisibility(VISIBLE);
+            // "en línea" caduca aunque no llegue ningun snapshot nuevo
+            estadoHandler.postDelayed(refrescarEstadoRunnable, PresenceManager.HEARTBEAT_INTERVAL_MS);
+        } else {
+            tvReceiverStatus.setVisibility(GONE);
+        }
     }
 
     public void mostarBotonEnviar() {
@@ -140,10 +342,17 @@ public class ChatActivity extends AppCompatActivity {
                 if (s.toString().trim().isEmpty()) {
                     btnSend.setEnabled(false);
                     btnSend.setAlpha(0.5f);
+                    if (typingIndicator != null) {
+                        typingIndicator.onTypingStopped();
+                    }
 
                 } else {
                     btnSend.setEnabled(true);
                     btnSend.setAlpha(1.0f);
+                    // Limitado por TypingIndicator: no es una escritura por tecla
+                    if (typingIndicator != null) {
+                        typingIndicator.onUserTyping();
+                    }
                 }
             }
             @Override
@@ -159,24 +368,51 @@ public class ChatActivity extends AppCompatActivity {
     }
 
     private void iniciarRecyclerView() {
-        messageList = new ArrayList<>();
-        messageAdapter = new MessageAdapter(messageList, currentUserId);
+        messageAdapter = new MessageAdapter(currentUserId);
+        messageAdapter.setPendingIds(outbox.getPendingIds());
 
-        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
-        layoutManager.setStackFromEnd(true);
-        recyclerViewMessages.setLayoutManager(layoutManager);
-        recyclerViewMessages.setAdapter(messageAdapter);
+        // Mientras se leen los mensajes de disco se van inflando las burbujas de la primera pantalla
+        messageViewCache = new MessageViewCache(this);
+        messageViewCache.warm(recyclerViewMessages, R.layout.item_message_sent, BUBBLES_TO_WARM);
+        messageViewCache.warm(recyclerViewMessages, R.layout.item_message_received, BUBBLES_TO_WARM);
+        messageAdapter.setViewCache(messageViewCache);
 
+        configurarRecyclerView();
         actualizarSinMensajes();
 
     }
 
-    private String generarChatId(String userId1, String userId2) {
-        if (userId1.compareTo(userId2) < 0) {
-            return userId1 + "_" + userId2;
-        } else {
-            return userId2 + "_" + userId1;
-        }
+    private void configurarRecyclerView() {
+        layoutManager = new LinearLayoutManager(this);
+        layoutManager.setStackFromEnd(true);
+        // Las burbujas que van a entrar en pantalla se crean entre frames durante el scroll
+        layoutManager.setItemPrefetchEnabled(true);
+        recyclerViewMessages.setLayoutManager(layoutManager);
+        recyclerViewMessages.setHasFixedSize(true);
+        recyclerViewMessages.setItemViewCacheSize(ITEM_VIEW_CACHE_SIZE);
+        MessageAdapter.configureViewPool(recyclerViewMessages.getRecycledViewPool());
+        recyclerViewMessages.setAdapter(messageAdapter);
+
+        // Al acercarse al principio de la lista se piden los mensajes anteriores; al bajar desde un resultado
+        // de busqueda, los que faltan hasta la parte ya cargada
+        recyclerViewMessages.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (dy < 0 && layoutManager.findFirstVisibleItemPosition() <= PREFETCH_THRESHOLD) {
+                    chatSession.loadOlder();
+                } else if (dy > 0) {
+                    chatSession.loadNewer(layoutManager.findLastVisibleItemPosition() + PREFETCH_THRESHOLD);
+                }
+            }
+
+            @Override
+            public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+                // Una sola escritura cuando el scroll se detiene, no una por mensaje
+                if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                    marcarVisiblesComoLeidos();
+                }
+            }
+        });
     }
 
     public void enviarMensaje() {
@@ -186,9 +422,7 @@ public class ChatActivity extends AppCompatActivity {
             Toast.makeText(this, "Escribe un mensaje", Toast.LENGTH_SHORT).show();
             return;
         }
-        String messageId = bd.collection("chats")
-                .document(chatId)
-                .collection("messages")
+        String messageId = mensajesRef()
                 .document()
                 .getId();
         Message message = new Message(
@@ -198,53 +432,144 @@ public class ChatActivity extends AppCompatActivity {
                 messageText,
                 System.currentTimeMillis()
         );
-        bd.collection("chats")
-                .document(chatId)
-                .collection("messages")
-                .document(messageId)
-                .set(message)
-                .addOnSuccessListener(aVoid -> {
-                    Log.d("CHAT", "MENSAJE EVIADO CORRECTAMENTE");
-                    etMessage.setText("");
-                    etMessage.requestFocus();
-                })
-                .addOnFailureListener(e -> {
-                    Log.e("CHAT", "ERROR AL ENVIAR MENSAJE" + e.getMessage());
-                    Toast.makeText(this, "Error al enviar mensaje", Toast.LENGTH_SHORT).show();
-                });
+
+        // Se pinta al momento como pendiente; la bandeja de salida lo sube y lo reintenta si falla
+        etMessage.setText("");
+        etMessage.requestFocus();
+
+        latencias.start(LatencyTracker.Metric.SEND_TO_ACK, messageId);
+        latencias.start(LatencyTracker.Metric.SERVER_ECHO, messageId);
+        chatSession.addLocal(message);
+
+        outbox.enqueue(chatId, message, receiverName, receiverPhotoUrl);
+    }
+
+    // El procesado y el envio los lleva la sesion del repositorio, asi no se pierden si se cierra la pantalla
+    private void enviarImagen(Uri uri) {
+        chatSession.sendImage(uri, receiverUserId, receiverName, receiverPhotoUrl, () -> {
+            if (!isFinishing() && !isDestroyed()) {
+                Toast.makeText(ChatActivity.this, "No se pudo enviar la imagen", Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    // Con el chat a la vista se ponen a cero los no leidos del usuario actual: todos sus shards en un commit.
+    // En segundo plano o si ya estaban a cero no se escribe nada; al volver, onResume lo repite
+    private void marcarConversacionLeida() {
+        if (!noLeidosPendientes || !getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.RESUMED)) {
+            return;
+        }
+        noLeidosPendientes = false;
+        guardarLectura();
     }
 
-    private void cargarMensajes() {
-        messageListener = bd.collection("chats")
+    // En un grupo basta con mover su marca de lectura
+    private void guardarLectura() {
+        if (grupo) {
+            GroupChats.markRead(bd, chatId, currentUserId);
+        } else {
+            UnreadCounter.reset(bd, chatId, currentUserId);
+        }
+    }
+
+    private CollectionReference mensajesRef() {
+        return bd.collection("chats")
                 .document(chatId)
-                .collection("messages")
-                .orderBy("timestamp", Query.Direction.ASCENDING)
-                .addSnapshotListener((value, error) -> {
-                    if (error != null) {
-                        Log.e("CHAT", "Error al escuchar mensajes: " + error.getMessage());
-                        return;
-                    }
-                    if (value != null) {
-                        for (DocumentChange dc : value.getDocumentChanges()) {
+                .collection("messages");
+    }
+
+    // Los mensajes llegan ya ordenados desde la sesion del repositorio; el diff se calcula fuera del hilo principal
+    @Override
+    public void onMessagesChanged(List<Message> messages, boolean irAlFinal, boolean animado) {
+        // Tras una rotacion el LayoutManager recupera su posicion: no se baja al final
+        boolean alFinal = irAlFinal && !restaurandoScroll;
+        restaurandoScroll = false;
+        messageAdapter.submitList(messages, () -> {
+            latencias.stop(LatencyTracker.Metric.SNAPSHOT_TO_BIND, chatId);
+            if (!primerFrameMedido && !messages.isEmpty()) {
+                medirPrimerFrame();
+            }
+            actualizarSinMensajes();
+            if (irAMensajeBuscado()) {
+                return;
+            }
+            int ultimo = messageAdapter.getItemCount() - 1;
+            if (alFinal && ultimo >= 0) {
+                if (animado) {
+                    recyclerViewMessages.smoothScrollToPosition(ultimo);
+                } else {
+                    recyclerViewMessages.scrollToPosition(ultimo);
+                }
+            }
+            // Lo que queda a la vista tras el layout se da por leido
+            if (getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.RESUMED)) {
+                recyclerViewMessages.post(this::marcarVisiblesComoLeidos);
+            }
+        });
+    }
 
-                            if (dc.getType() == DocumentChange.Type.ADDED) {
-                                Message message = dc.getDocument().toObject(Message.class);
+    // El siguiente frame es el primero que pinta mensajes: se mide justo antes de dibujarlo
+    private void medirPrimerFrame() {
+        primerFrameMedido = true;
+        recyclerViewMessages.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                recyclerViewMessages.getViewTreeObserver().removeOnPreDrawListener(this);
+                latencias.record(LatencyTracker.Metric.FIRST_FRAME, LatencyTracker.now() - inicioApertura);
+                reportFullyDrawn();
+                return true;
+            }
+        });
+    }
 
-                                messageList.add(message);
+    // Con el chat abierto lo recibido ya esta leido: una escritura por snapshot, no por mensaje
+    @Override
+    public void onMessagesReceived() {
+        noLeidosPendientes = true;
+        marcarConversacionLeida();
+    }
 
-                                int position = messageList.size() - 1;
-                                messageAdapter.notifyItemInserted(position);
-                                recyclerViewMessages.smoothScrollToPosition(messageList.size() - 1);
-                                actualizarSinMensajes();
-                            }
-                        }
+    // Coloca el resultado de busqueda a un tercio de la pantalla, una sola vez
+    private boolean irAMensajeBuscado() {
+        if (mensajeBuscadoId == null) {
+            return false;
+        }
+        int indice = indiceDe(mensajeBuscadoId);
+        if (indice < 0) {
+            return false;
+        }
+        mensajeBuscadoId = null;
+        layoutManager.scrollToPositionWithOffset(indice, recyclerViewMessages.getHeight() / 3);
+        if (getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.RESUMED)) {
+            recyclerViewMessages.post(this::marcarVisiblesComoLeidos);
+        }
+        return true;
+    }
 
-                    }
-                });
+    // Los recibidos visibles se marcan como leidos con un unico WriteBatch
+    private void marcarVisiblesComoLeidos() {
+        int primero = layoutManager.findFirstVisibleItemPosition();
+        int ultimo = layoutManager.findLastVisibleItemPosition();
+        List<Message> actual = messageAdapter.getCurrentList();
+        if (primero == RecyclerView.NO_POSITION || primero >= actual.size() || isFinishing() || isDestroyed()) {
+            return;
+        }
+        chatSession.markRead(actual.subList(primero, Math.min(ultimo + 1, actual.size())));
+    }
+
+    private int indiceDe(String messageId) {
+        List<Message> actual = messageAdapter.getCurrentList();
+        for (int i = actual.size() - 1; i >= 0; i--) {
+            if (actual.get(i).getMessageId().equals(messageId)) {
+                return i;
+            }
+        }
+        return -1;
     }
 
+
     private void actualizarSinMensajes() {
-        if (messageList.isEmpty()) {
+        if (messageAdapter.getCurrentList().isEmpty()) {
             tvNoMessages.setVisibility(VISIBLE);
             recyclerViewMessages.setVisibility(GONE);
         } else {
@@ -253,13 +578,35 @@ public class ChatActivity extends AppCompatActivity {
         }
     }
 
+    @Override
+    public void onOutboxChanged(String changedChatId) {
+        if (chatId.equals(changedChatId)) {
+            messageAdapter.setPendingIds(outbox.getPendingIds());
+        }
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        // Detener el listener cuando se cierra la actividad
-        if (messageListener != null) {
-            messageListener.remove();
-
+        if (outbox != null) {
+            outbox.removeListener(this);
+        }
+        // La sesion sigue viva un rato por si la pantalla vuelve (rotacion, volver al chat)
+        if (chatSession != null) {
+            chatRepository.release(chatSession, this);
+        }
+        if (typingIndicator != null) {
+            typingIndicator.stop();
+        }
+        if (presenceListener != null) {
+            presenceListener.remove();
+        }
+        if (grupoListener != null) {
+            grupoListener.remove();
+        }
+        estadoHandler.removeCallbacksAndMessages(null);
+        if (messageViewCache != null) {
+            messageViewCache.release();
         }
     }
 
@@ -278,9 +625,12 @@ public class ChatActivity extends AppCompatActivity {
     protected void onResume() {
         super.onResume();
 
+        if (chatId != null) {
+            marcarConversacionLeida();
+        }
 
         if (sensorManager != null) {
-            sensorManager.startListening();
+            sensorManager.addListener(temaListener);
         }
     }
 
@@ -288,19 +638,24 @@ public class ChatActivity extends AppCompatActivity {
     protected void onPause() {
         super.onPause();
 
+        if (typingIndicator != null) {
+            typingIndicator.onTypingStopped();
+        }
+        // Lo enviado desde aqui tambien queda por detras de la marca de lectura del grupo
+        if (grupo && chatId != null) {
+            guardarLectura();
+        }
+
         if (sensorManager != null) {
-            sensorManager.stopListening();
+            sensorManager.removeListener(temaListener);
         }
     }
 
     private void inicializarSensor() {
 
-        sensorManager = new LightSensorManager(this, isDarkMode -> {
-
-            runOnUiThread(() -> {
-                aplicarTema();
-            });
-        });
+        // El motor es de toda la app y ya avisa en el hilo principal
+        sensorManager = LightSensorManager.getInstance(this);
+        temaListener = isDarkMode -> aplicarTema();
 
     }
 
@@ -0,0 +1,115 @@
+package activities;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.ImageView;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.app.AppCompatDelegate;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import daniel.chatapp.R;
+import utils.LatencyTracker;
+import utils.LightSensorManager;
+import utils.MessageStore;
+
+// Pantalla oculta con los percentiles e histogramas de LatencyTracker; se refresca sola mientras esta a la vista
+// y puede volcar el informe a un fichero para comparar antes y despues de un cambio
+public class DebugMetricsActivity extends AppCompatActivity {
+
+    private static final long REFRESH_INTERVAL_MS = 1000;
+
+    private TextView tvMetrics;
+    private final LatencyTracker latencias = LatencyTracker.getInstance();
+    private final Handler refreshHandler = new Handler(Looper.getMainLooper());
+    private final Runnable refreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            tvMetrics.setText(latencias.report());
+            refreshHandler.postDelayed(this, REFRESH_INTERVAL_MS);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        aplicarTema();
+        setContentView(R.layout.activity_debug_metrics);
+
+        ImageView btnBack = findViewById(R.id.btnBack);
+        ImageView btnDump = findViewById(R.id.btnDumpMetrics);
+        ImageView btnReset = findViewById(R.id.btnResetMetrics);
+        tvMetrics = findViewById(R.id.tvMetrics);
+
+        btnBack.setOnClickListener(v -> finish());
+        btnDump.setOnClickListener(v -> volcarAFichero());
+        btnReset.setOnClickListener(v -> {
+            latencias.reset();
+            tvMetrics.setText(latencias.report());
+        });
+    }
+
+    // El fichero queda en la carpeta de la app (adb pull /sdcard/Android/data/<paquete>/files/metrics/...)
+    private void volcarAFichero() {
+        String informe = latencias.report();
+        File dir = getExternalFilesDir("metrics");
+        if (dir == null) {
+            dir = new File(getFilesDir(), "metrics");
+        }
+        File carpeta = dir;
+        String nombre = "latency-" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date()) + ".txt";
+
+        MessageStore.DISK_EXECUTOR.execute(() -> {
+            File fichero = new File(carpeta, nombre);
+            boolean ok = (carpeta.isDirectory() || carpeta.mkdirs()) && escribir(fichero, informe);
+            runOnUiThread(() -> Toast.makeText(this,
+                    ok ? "Guardado en " + fichero.getAbsolutePath() : "No se pudo guardar el informe",
+                    Toast.LENGTH_LONG).show());
+        });
+    }
+
+    private static boolean escribir(File fichero, String informe) {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(fichero), StandardCharsets.UTF_8)) {
+            writer.write(informe);
+            return true;
+        } catch (IOException e) {
+            Log.e("METRICS", "Error al volcar latencias: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void aplicarTema() {
+        boolean isDark = LightSensorManager.getSavedTheme(this);
+
+        if (isDark) {
+            AppCompatDelegate.setDefaultNightMode(AppCompatDelegate.MODE_NIGHT_YES);
+        } else {
+            AppCompatDelegate.setDefaultNightMode(AppCompatDelegate.MODE_NIGHT_NO);
+        }
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        refreshHandler.post(refreshRunnable);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        refreshHandler.removeCallbacks(refreshRunnable);
+    }
+}
@@ -2,42 +2,83 @@ package activities;
 
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.content.res.Configuration;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Parcelable;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.View;
+import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.app.AppCompatDelegate;
+import androidx.recyclerview.widget.ConcatAdapter;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.bumptech.glide.Glide;
 import com.google.android.gms.auth.api.signin.GoogleSignIn;
 import com.google.android.gms.auth.api.signin.GoogleSignInClient;
 import com.google.android.gms.auth.api.signin.GoogleSignInOptions;
+import com.google.android.gms.tasks.Task;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.QuerySnapshot;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
+import adapters.ConversationAdapter;
 import adapters.UserAdapter;
 import daniel.chatapp.R;
+import models.Conversation;
 import models.User;
+import models.UserMapper;
+import utils.AvatarLoader;
+import utils.ChatIds;
+import utils.ChatRepository;
+import utils.GroupChats;
+import utils.HomePrefetcher;
 import utils.LightSensorManager;
-
-public class HomeActivity extends AppCompatActivity implements UserAdapter.OnUserClickListener {
+import utils.MessageOutbox;
+import utils.MessageStore;
+import utils.PresenceManager;
+import utils.PresenceTracker;
+import utils.TimestampFormatter;
+import utils.UnreadTracker;
+
+public class HomeActivity extends AppCompatActivity implements UserAdapter.OnUserClickListener,
+        ConversationAdapter.OnConversationClickListener {
+
+    // Directorio paginado: se piden PAGE_SIZE usuarios cada vez que se llega al final de la lista
+    private static final int PAGE_SIZE = HomePrefetcher.USERS_PAGE_SIZE;
+    private static final int PREFETCH_THRESHOLD = 5;
+    private static final long SEARCH_DELAY_MS = 300;
+    private static final int INBOX_LIMIT = HomePrefetcher.INBOX_LIMIT;
 
     private TextView tvUserName;
     private TextView tvNoUsers;
     private ImageView btnLogout;
+    private ImageView btnSearchMessages;
+    private ImageView btnNewGroup;
     private ImageView ivProfilePic;
     private RecyclerView recyclerViewUsers;
+    private EditText etSearchUsers;
 
     private FirebaseAuth mAuth;
     private FirebaseFirestore bd;
@@ -46,7 +87,32 @@ public class HomeActivity extends AppCompatActivity implements UserAdapter.OnUse
     private List<User> userList;
     private UserAdapter userAdapter;
 
+    // Bandeja de conversaciones recientes, encima del directorio
+    private ConversationAdapter conversationAdapter;
+    private ListenerRegistration conversationListener;
+
+    // Presencia de las filas visibles del directorio
+    private PresenceTracker presenceTracker;
+    private LinearLayoutManager layoutManager;
+
+    // No leidos de las filas visibles (conversaciones y usuarios del directorio), por chatId
+    private UnreadTracker unreadTracker;
+    private final Map<String, String> uidPorChat = new HashMap<>();
+
+    private DocumentSnapshot ultimoUsuario;
+    private boolean cargandoUsuarios = false;
+    private boolean hayMasUsuarios = true;
+    private String textoBusqueda = "";
+    private int generacionBusqueda = 0;
+    private final Handler searchHandler = new Handler(Looper.getMainLooper());
+
     private LightSensorManager sensorManager;
+    private LightSensorManager.OnThemeChangeListener temaListener;
+    private int temaAplicado;
+
+    // Cabecera con el perfil propio; se guarda para repintarla al cambiar de tema
+    private String nombreUsuario;
+    private String fotoUsuario;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -55,34 +121,116 @@ public class HomeActivity extends AppCompatActivity implements UserAdapter.OnUse
 
         aplicarTema();
 
+        TimestampFormatter.getInstance().setYesterdayLabel(getString(R.string.yesterday));
         setContentView(R.layout.activity_home);
+        temaAplicado = getResources().getConfiguration().uiMode & Configuration.UI_MODE_NIGHT_MASK;
 
 
         mAuth = FirebaseAuth.getInstance();
         bd = FirebaseFirestore.getInstance();
         currentUser = mAuth.getCurrentUser();
 
+        userList = new ArrayList<>();
+        userAdapter = new UserAdapter(userList, this);
+        conversationAdapter = new ConversationAdapter(currentUser.getUid(), this);
+
+        inicializarVista();
+
+        presenceTracker = new PresenceTracker(bd, lastSeen -> userAdapter.setLastSeen(lastSeen));
+        unreadTracker = new UnreadTracker(bd, currentUser.getUid(), this::mostrarNoLeidos);
+        // Latido de presencia propio mientras la app este en primer plano
+        PresenceManager.getInstance().start(currentUser.getUid());
+
+        // Retoma los mensajes que quedaron sin enviar en una ejecucion anterior
+        MessageOutbox.getInstance(this).flush();
+
+        cargarDatosUsuarioActual();
+        escucharConversaciones();
+        cargarListaUsuario();
+
+
+
+        inicializarSensor();
+
+    }
+
+    private void inicializarVista() {
         tvUserName = findViewById(R.id.tvUserName);
         tvNoUsers = findViewById(R.id.tvNoUsers);
         btnLogout = findViewById(R.id.btnLogout);
+        btnSearchMessages = findViewById(R.id.btnSearchMessages);
+        btnNewGroup = findViewById(R.id.btnNewGroup);
         recyclerViewUsers = findViewById(R.id.recyclerViewUsers);
         ivProfilePic = findViewById(R.id.ivProfilePic);
+        etSearchUsers = findViewById(R.id.etSearchUsers);
+
+        layoutManager = new LinearLayoutManager(this);
+        recyclerViewUsers.setLayoutManager(layoutManager);
+        recyclerViewUsers.setAdapter(new ConcatAdapter(conversationAdapter, userAdapter));
+
+        // Los avatares de las filas siguientes se decodifican antes de que entren en pantalla
+        recyclerViewUsers.addOnScrollListener(AvatarLoader.createPreloader(this,
+                getResources().getDimensionPixelSize(R.dimen.avatar_list), this::photoUrlEnPosicion));
+
+        // Al acercarse al final de la lista se pide la siguiente pagina
+        recyclerViewUsers.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (dy > 0 && layoutManager.findLastVisibleItemPosition() >= layoutManager.getItemCount() - PREFETCH_THRESHOLD) {
+                    cargarSiguientePaginaUsuarios();
+                }
+            }
+
+            @Override
+            public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+                if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                    actualizarPresenciaVisible();
+                    actualizarNoLeidosVisibles();
+                }
+            }
+        });
 
-        recyclerViewUsers.setLayoutManager(new LinearLayoutManager(this));
-        userList = new ArrayList<>();
-
-        userAdapter = new UserAdapter(userList, this);
-        recyclerViewUsers.setAdapter(userAdapter);
-
-        cargarDatosUsuarioActual();
-        cargarListaUsuario();
+        configurarBusqueda();
 
         btnLogout.setOnClickListener(v -> cerrarSesion());
+        btnSearchMessages.setOnClickListener(v -> startActivity(new Intent(HomeActivity.this, SearchActivity.class)));
+        btnNewGroup.setOnClickListener(v -> elegirMiembrosGrupo());
+        // Oculto: latencias medidas en esta ejecucion
+        tvUserName.setOnLongClickListener(v -> {
+            startActivity(new Intent(HomeActivity.this, DebugMetricsActivity.class));
+            return true;
+        });
+    }
 
+    // El manifiesto declara uiMode: el cambio de tema no recrea la Activity ni vuelve a pedir el directorio
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+        int nocheAnterior = temaAplicado;
+        super.onConfigurationChanged(newConfig);
+        temaAplicado = newConfig.uiMode & Configuration.UI_MODE_NIGHT_MASK;
+        if (temaAplicado != nocheAnterior) {
+            reconstruirVista();
+        }
+    }
 
+    // Vuelve a inflar la pantalla con los colores del nuevo tema sobre los adapters y datos ya cargados
+    private void reconstruirVista() {
+        Parcelable scroll = layoutManager.onSaveInstanceState();
+        String busqueda = etSearchUsers.getText().toString();
+        // La vista anterior no debe seguir colgada de los adapters (y con ella toda la jerarquia vieja)
+        recyclerViewUsers.clearOnScrollListeners();
+        recyclerViewUsers.setAdapter(null);
 
-        inicializarSensor();
-
+        setContentView(R.layout.activity_home);
+        inicializarVista();
+        layoutManager.onRestoreInstanceState(scroll);
+
+        // Si coincide con textoBusqueda el TextWatcher no relanza la consulta
+        etSearchUsers.setText(busqueda);
+        mostrarDatosUsuario();
+        if (!cargandoUsuarios) {
+            actualizarSinUsuarios();
+        }
     }
 
     private void aplicarTema() {
@@ -96,69 +244,277 @@ public class HomeActivity extends AppCompatActivity implements UserAdapter.OnUse
         }
     }
 
+    // Posicion en el ConcatAdapter: primero las conversaciones y despues el directorio
+    private String photoUrlEnPosicion(int position) {
+        int conversaciones = conversationAdapter.getItemCount();
+        if (position < conversaciones) {
+            return conversationAdapter.getPhotoUrl(position);
+        }
+        return userAdapter.getPhotoUrl(position - conversaciones);
+    }
+
     private void cargarDatosUsuarioActual() {
-        bd.collection("users")
-                .document(currentUser.getUid())
-                .get()
-                .addOnSuccessListener(documentSnapshot -> {
-                    if (isFinishing() || isDestroyed()) {
-                        return;
-                    }
+        // Si el splash ya pidio el perfil se reutiliza esa peticion
+        Task<DocumentSnapshot> perfil = HomePrefetcher.getInstance().takeProfile(currentUser.getUid());
+        if (perfil == null) {
+            perfil = bd.collection("users").document(currentUser.getUid()).get();
+        }
+        perfil.addOnSuccessListener(documentSnapshot -> {
+            if (isFinishing() || isDestroyed()) {
+                return;
+            }
+
+            if (documentSnapshot.exists()) {
+                String displayName = documentSnapshot.getString("displayName");
+                nombreUsuario = displayName != null ? displayName : "usuario";
+                fotoUsuario = documentSnapshot.getString("photoUrl");
+                mostrarDatosUsuario();
+                completarNombreEnMinusculas(documentSnapshot, displayName);
+            }
+        }).addOnFailureListener(e -> {
+            if (!isFinishing() && !isDestroyed()) {
+                nombreUsuario = currentUser.getEmail();
+                mostrarDatosUsuario();
+            }
+        });
+    }
 
-                    if (documentSnapshot.exists()) {
-                        String displayName = documentSnapshot.getString("displayName");
-                        String photoUrl = documentSnapshot.getString("photoUrl");
+    // Los perfiles creados antes de la busqueda por prefijo no tienen displayNameLower y no salen en ella:
+    // cada usuario completa el suyo al entrar, con una sola escritura y solo si falta o no coincide
+    private void completarNombreEnMinusculas(DocumentSnapshot perfil, String displayName) {
+        if (displayName == null) {
+            return;
+        }
+        String minusculas = displayName.toLowerCase(Locale.ROOT);
+        if (minusculas.equals(perfil.getString(UserMapper.DISPLAY_NAME_LOWER))) {
+            return;
+        }
+        perfil.getReference()
+                .update(UserMapper.DISPLAY_NAME_LOWER, minusculas)
+                .addOnFailureListener(e -> Log.e("HOME", "Error al completar displayNameLower: " + e.getMessage()));
+    }
 
-                        tvUserName.setText(displayName != null ? displayName : "usuario");
+    private void mostrarDatosUsuario() {
+        if (nombreUsuario != null) {
+            tvUserName.setText(nombreUsuario);
+        }
+        if (fotoUsuario != null && !fotoUsuario.isEmpty()) {
+            AvatarLoader.load(ivProfilePic, fotoUsuario,
+                    getResources().getDimensionPixelSize(R.dimen.avatar_home_header));
+        }
+    }
 
-                        if (photoUrl != null && !photoUrl.isEmpty()) {
-                            if (!isFinishing() && !isDestroyed()) {
-                                Glide.with(this)
-                                        .load(photoUrl)
-                                        .placeholder(R.drawable.ic_chat_logo)
-                                        .error(R.drawable.ic_chat_logo)
-                                        .into(ivProfilePic);
-                            }
-                        }
+    // Una sola consulta indexada sobre los resumenes de chat, ordenados por el ultimo mensaje
+    private void escucharConversaciones() {
+        // Misma consulta que lanza el splash: el primer snapshot sale de la cache ya caliente
+        conversationListener = HomePrefetcher.conversationsQuery(bd, currentUser.getUid())
+                .addSnapshotListener((value, error) -> {
+                    if (error != null) {
+                        Log.e("HOME", "Error al escuchar conversaciones: " + error.getMessage());
+                        return;
                     }
-                })
-                .addOnFailureListener(e -> {
-                    if (!isFinishing() && !isDestroyed()) {
-                        tvUserName.setText(currentUser.getEmail());
+                    if (value == null) {
+                        return;
+                    }
+                    List<Conversation> conversaciones = new ArrayList<>();
+                    Map<String, Long> actividadGrupos = new HashMap<>();
+                    for (QueryDocumentSnapshot document : value) {
+                        Conversation conversation = document.toObject(Conversation.class);
+                        conversation.setChatId(document.getId());
+                        conversaciones.add(conversation);
+                        if (conversation.isGroup()) {
+                            actividadGrupos.put(conversation.getChatId(), conversation.getLastTimestamp());
+                        }
                     }
+                    // Los no leidos de un grupo solo se recuentan si su ultimo mensaje ha cambiado
+                    unreadTracker.setGroupActivity(actividadGrupos);
+                    conversationAdapter.submitList(conversaciones, () -> recyclerViewUsers.post(this::actualizarNoLeidosVisibles));
                 });
     }
 
+    private void configurarBusqueda() {
+        etSearchUsers.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                // Esperamos a que el usuario deje de escribir para no lanzar una consulta por tecla
+                String texto = s.toString().trim();
+                searchHandler.removeCallbacksAndMessages(null);
+                searchHandler.postDelayed(() -> {
+                    if (!texto.equals(textoBusqueda)) {
+                        textoBusqueda = texto;
+                        cargarListaUsuario();
+                    }
+                }, SEARCH_DELAY_MS);
+            }
+        });
+    }
+
+    // Reinicia el directorio y carga la primera pagina del listado o de la busqueda actual
     private void cargarListaUsuario() {
-        bd.collection("users")
-                .get()
-                .addOnSuccessListener(queryDocumentSnapshots -> {
-                    userList.clear();
+        generacionBusqueda++;
+        ultimoUsuario = null;
+        hayMasUsuarios = true;
+        cargandoUsuarios = false;
 
-                    for (QueryDocumentSnapshot document : queryDocumentSnapshots) {
-                        User user = document.toObject(User.class);
+        userList.clear();
+        userAdapter.notifyDataSetChanged();
 
-                        if (!user.getUid().equals(currentUser.getUid())) {
-                            userList.add(user);
-                        }
-                    }
+        cargarSiguientePaginaUsuarios();
+    }
 
-                    if (userList.isEmpty()) {
-                        tvNoUsers.setVisibility(View.VISIBLE);
-                        recyclerViewUsers.setVisibility(View.GONE);
-                    } else {
-                        tvNoUsers.setVisibility(View.GONE);
-                        recyclerViewUsers.setVisibility(View.VISIBLE);
-                    }
+    private Query consultaUsuarios() {
+        if (textoBusqueda.isEmpty()) {
+            return HomePrefetcher.usersQuery(bd);
+        }
+        // Busqueda por prefijo en el servidor sobre el nombre en minusculas
+        String prefijo = textoBusqueda.toLowerCase(Locale.ROOT);
+        return bd.collection("users")
+                .orderBy("displayNameLower")
+                .startAt(prefijo)
+                .endAt(prefijo + "\uf8ff");
+    }
 
-                    userAdapter.notifyDataSetChanged();
-                })
-                .addOnFailureListener(e -> {
-                    Toast.makeText(this, "Error al cargar usuarios", Toast.LENGTH_SHORT).show();
-                });
+    private void cargarSiguientePaginaUsuarios() {
+        if (cargandoUsuarios || !hayMasUsuarios) {
+            return;
+        }
+        cargandoUsuarios = true;
+
+        int generacion = generacionBusqueda;
+        Query query = consultaUsuarios();
+        if (ultimoUsuario != null) {
+            query = query.startAfter(ultimoUsuario);
+        }
+
+        // La primera pagina del listado ya la pidio el splash
+        Task<QuerySnapshot> pagina = null;
+        if (ultimoUsuario == null && textoBusqueda.isEmpty()) {
+            pagina = HomePrefetcher.getInstance().takeUsersPage(currentUser.getUid());
+        }
+        if (pagina == null) {
+            pagina = query.limit(PAGE_SIZE).get();
+        }
+
+        pagina.addOnSuccessListener(queryDocumentSnapshots -> {
+            // Si la busqueda ha cambiado mientras tanto, esta respuesta ya no sirve
+            if (generacion != generacionBusqueda || isFinishing() || isDestroyed()) {
+                return;
+            }
+            cargandoUsuarios = false;
+
+            List<DocumentSnapshot> documentos = queryDocumentSnapshots.getDocuments();
+            hayMasUsuarios = documentos.size() >= PAGE_SIZE;
+            if (!documentos.isEmpty()) {
+                ultimoUsuario = documentos.get(documentos.size() - 1);
+            }
+
+            int inicio = userList.size();
+            for (QueryDocumentSnapshot document : queryDocumentSnapshots) {
+                User user = UserMapper.fromMap(document.getData(), document.getId());
+
+                if (!user.getUid().equals(currentUser.getUid())) {
+                    userList.add(user);
+                }
+            }
+            userAdapter.notifyItemRangeInserted(inicio, userList.size() - inicio);
+
+            // Si la pagina solo traia al usuario actual no hay nada que desplazar: seguimos pidiendo
+            if (userList.size() == inicio && hayMasUsuarios) {
+                cargarSiguientePaginaUsuarios();
+                return;
+            }
+
+            recyclerViewUsers.post(this::actualizarPresenciaVisible);
+            recyclerViewUsers.post(this::actualizarNoLeidosVisibles);
+
+            actualizarSinUsuarios();
+        }).addOnFailureListener(e -> {
+            if (generacion == generacionBusqueda) {
+                cargandoUsuarios = false;
+            }
+            Toast.makeText(this, "Error al cargar usuarios", Toast.LENGTH_SHORT).show();
+        });
+    }
+
+    private void actualizarSinUsuarios() {
+        if (userList.isEmpty()) {
+            tvNoUsers.setVisibility(View.VISIBLE);
+            recyclerViewUsers.setVisibility(View.GONE);
+        } else {
+            tvNoUsers.setVisibility(View.GONE);
+            recyclerViewUsers.setVisibility(View.VISIBLE);
+        }
+    }
+
+    // Usuarios del directorio que estan en pantalla (la bandeja de conversaciones va delante)
+    private void actualizarPresenciaVisible() {
+        int primero = layoutManager.findFirstVisibleItemPosition();
+        int ultimo = layoutManager.findLastVisibleItemPosition();
+        if (primero == RecyclerView.NO_POSITION) {
+            return;
+        }
+        int desplazamiento = conversationAdapter.getItemCount();
+        List<String> visibles = new ArrayList<>();
+        for (int i = Math.max(primero, desplazamiento); i <= ultimo; i++) {
+            int indice = i - desplazamiento;
+            if (indice < userList.size()) {
+                visibles.add(userList.get(indice).getUid());
+            }
+        }
+        presenceTracker.watch(visibles);
+    }
+
+    // Chats de las filas visibles: los de la bandeja por su id y los del directorio por el chat conmigo
+    private void actualizarNoLeidosVisibles() {
+        int primero = layoutManager.findFirstVisibleItemPosition();
+        int ultimo = layoutManager.findLastVisibleItemPosition();
+        if (primero == RecyclerView.NO_POSITION) {
+            return;
+        }
+        String uid = currentUser.getUid();
+        int desplazamiento = conversationAdapter.getItemCount();
+        List<String> visibles = new ArrayList<>();
+        uidPorChat.clear();
+        for (int i = primero; i <= ultimo; i++) {
+            if (i < desplazamiento) {
+                visibles.add(conversationAdapter.getChatId(i));
+            } else if (i - desplazamiento < userList.size()) {
+                String otro = userList.get(i - desplazamiento).getUid();
+                String chatId = ChatIds.chatId(uid, otro);
+                uidPorChat.put(chatId, otro);
+                visibles.add(chatId);
+            }
+        }
+        unreadTracker.watch(visibles);
+    }
+
+    private void mostrarNoLeidos(Map<String, Long> unreadByChat) {
+        conversationAdapter.setUnread(unreadByChat);
+
+        Map<String, Long> porUsuario = new HashMap<>();
+        for (Map.Entry<String, Long> entry : unreadByChat.entrySet()) {
+            String otro = uidPorChat.get(entry.getKey());
+            if (otro != null) {
+                porUsuario.put(otro, entry.getValue());
+            }
+        }
+        userAdapter.setUnread(porUsuario);
     }
 
     private void cerrarSesion() {
+        PresenceManager.getInstance().stop();
+        ChatRepository.getInstance(this).closeAll();
+        MessageOutbox.getInstance(this).clear();
+        MessageStore messageStore = MessageStore.getInstance(this);
+        MessageStore.DISK_EXECUTOR.execute(messageStore::clearMessages);
         mAuth.signOut();
 
         GoogleSignInOptions gso = new GoogleSignInOptions.Builder(GoogleSignInOptions.DEFAULT_SIGN_IN)
@@ -195,13 +551,118 @@ public class HomeActivity extends AppCompatActivity implements UserAdapter.OnUse
         startActivity(intent);
     }
 
+    // Los miembros se eligen entre los usuarios ya cargados en el directorio
+    private void elegirMiembrosGrupo() {
+        List<User> candidatos = new ArrayList<>();
+        for (User user : userList) {
+            if (user.getUid() != null && !user.getUid().equals(currentUser.getUid())) {
+                candidatos.add(user);
+            }
+        }
+        if (candidatos.isEmpty()) {
+            Toast.makeText(this, "No hay usuarios para el grupo", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        String[] nombres = new String[candidatos.size()];
+        for (int i = 0; i < nombres.length; i++) {
+            nombres[i] = candidatos.get(i).getDisplayName() != null ? candidatos.get(i).getDisplayName() : "Usuario";
+        }
+        boolean[] elegidos = new boolean[candidatos.size()];
+
+        new AlertDialog.Builder(this)
+                .setTitle("Miembros del grupo")
+                .setMultiChoiceItems(nombres, elegidos, (dialog, which, isChecked) -> elegidos[which] = isChecked)
+                .setPositiveButton("Siguiente", (dialog, which) -> {
+                    List<User> miembros = new ArrayList<>();
+                    for (int i = 0; i < elegidos.length; i++) {
+                        if (elegidos[i]) {
+                            miembros.add(candidatos.get(i));
+                        }
+                    }
+                    if (miembros.isEmpty()) {
+                        Toast.makeText(this, "Elige al menos un miembro", Toast.LENGTH_SHORT).show();
+                    } else if (miembros.size() >= GroupChats.MAX_MEMBERS) {
+                        Toast.makeText(this, "Demasiados miembros para un grupo", Toast.LENGTH_SHORT).show();
+                    } else {
+                        pedirTituloGrupo(miembros);
+                    }
+                })
+                .setNegativeButton("Cancelar", null)
+                .show();
+    }
+
+    private void pedirTituloGrupo(List<User> miembros) {
+        EditText etTitulo = new EditText(this);
+        etTitulo.setHint("Nombre del grupo");
+        etTitulo.setSingleLine(true);
+
+        new AlertDialog.Builder(this)
+                .setTitle("Nuevo grupo")
+                .setView(etTitulo)
+                .setPositiveButton("Crear", (dialog, which) -> {
+                    String titulo = etTitulo.getText().toString().trim();
+                    crearGrupo(titulo.isEmpty() ? "Grupo" : titulo, miembros);
+                })
+                .setNegativeButton("Cancelar", null)
+                .show();
+    }
+
+    // Un solo lote: el documento del grupo y la marca de lectura de cada miembro
+    private void crearGrupo(String titulo, List<User> miembros) {
+        User yo = new User(currentUser.getUid(), currentUser.getEmail(),
+                nombreUsuario != null ? nombreUsuario : currentUser.getDisplayName(),
+                fotoUsuario != null ? fotoUsuario
+                        : currentUser.getPhotoUrl() != null ? currentUser.getPhotoUrl().toString() : null);
+        String groupChatId = GroupChats.newGroupId(bd);
+
+        GroupChats.create(bd, groupChatId, titulo, yo, miembros)
+                .addOnSuccessListener(aVoid -> {
+                    if (!isFinishing() && !isDestroyed()) {
+                        abrirGrupo(groupChatId, titulo);
+                    }
+                })
+                .addOnFailureListener(e -> {
+                    Log.e("HOME", "Error al crear el grupo: " + e.getMessage());
+                    Toast.makeText(this, "No se pudo crear el grupo", Toast.LENGTH_SHORT).show();
+                });
+    }
+
+    private void abrirGrupo(String groupChatId, String titulo) {
+        Intent intent = new Intent(HomeActivity.this, ChatActivity.class);
+        intent.putExtra("groupChatId", groupChatId);
+        intent.putExtra("groupTitle", titulo);
+        startActivity(intent);
+    }
+
+    @Override
+    public void onConversationClick(Conversation conversation) {
+        if (conversation.isGroup()) {
+            abrirGrupo(conversation.getChatId(), conversation.getTitle() != null ? conversation.getTitle() : "Grupo");
+            return;
+        }
+        String otherId = conversation.getOtherParticipant(currentUser.getUid());
+        if (otherId == null || conversation.getParticipantNames() == null) {
+            Toast.makeText(this, "Error: datos de conversación incompletos", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        Intent intent = new Intent(HomeActivity.this, ChatActivity.class);
+        intent.putExtra("receiverUserId", otherId);
+        intent.putExtra("receiverName", conversation.getParticipantNames().get(otherId));
+        if (conversation.getParticipantPhotos() != null) {
+            intent.putExtra("receiverPhotoUrl", conversation.getParticipantPhotos().get(otherId));
+        }
+
+        startActivity(intent);
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
         Log.d("HOME", "onResume - Iniciando escucha del sensor");
 
         if (sensorManager != null) {
-            sensorManager.startListening();
+            sensorManager.addListener(temaListener);
         }
     }
 
@@ -211,21 +672,34 @@ public class HomeActivity extends AppCompatActivity implements UserAdapter.OnUse
         Log.d("HOME", "onPause - Deteniendo escucha del sensor");
 
         if (sensorManager != null) {
-            sensorManager.stopListening();
+            sensorManager.removeListener(temaListener);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        searchHandler.removeCallbacksAndMessages(null);
+        if (conversationListener != null) {
+            conversationListener.remove();
+        }
+        if (presenceTracker != null) {
+            presenceTracker.stop();
+        }
+        if (unreadTracker != null) {
+            unreadTracker.stop();
         }
     }
 
     private void inicializarSensor() {
         Log.d("HOME", "Inicializando sensor de luz...");
 
-        sensorManager = new LightSensorManager(this, isDarkMode -> {
+        // El motor es de toda la app y ya avisa en el hilo principal
+        sensorManager = LightSensorManager.getInstance(this);
+        temaListener = isDarkMode -> {
             Log.d("HOME", "Callback de cambio de tema recibido: isDarkMode=" + isDarkMode);
-
-            runOnUiThread(() -> {
-                Log.d("HOME", "Aplicando nuevo tema desde sensor...");
-                aplicarTema();
-            });
-        });
+            aplicarTema();
+        };
 
     }
 }
\ No newline at end of file
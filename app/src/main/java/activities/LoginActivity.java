@@ -27,6 +27,7 @@ import com.google.firebase.firestore.FirebaseFirestore;
 
 import daniel.chatapp.R;
 import models.User;
+import models.UserMapper;
 
 
 public class LoginActivity extends AppCompatActivity {
@@ -172,7 +173,7 @@ public class LoginActivity extends AppCompatActivity {
         // Guardar en Firestore
         bd.collection("users")
                 .document(firebaseUser.getUid())
-                .set(user)
+                .set(UserMapper.toMap(user))
                 .addOnSuccessListener(aVoid -> {
                     ocultarProgreso();
                     irAHomeActivity();
@@ -0,0 +1,210 @@
+package activities;
+
+import static android.view.View.GONE;
+import static android.view.View.VISIBLE;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.util.Log;
+import android.widget.EditText;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.app.AppCompatDelegate;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Source;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import adapters.SearchResultAdapter;
+import daniel.chatapp.R;
+import models.Conversation;
+import models.Message;
+import utils.ChatIds;
+import utils.LightSensorManager;
+import utils.MessageStore;
+import utils.TimestampFormatter;
+
+// Busqueda en el historial de todos los chats sobre el indice local, sin consultas al servidor
+public class SearchActivity extends AppCompatActivity implements SearchResultAdapter.OnSearchHitClickListener {
+
+    // El indice responde en milisegundos, basta con agrupar las pulsaciones rapidas
+    private static final long SEARCH_DELAY_MS = 150;
+
+    private EditText etSearchMessages;
+    private RecyclerView recyclerViewResults;
+    private TextView tvNoResults;
+
+    private FirebaseUser currentUser;
+    private MessageStore messageStore;
+    private SearchResultAdapter searchResultAdapter;
+
+    private final Handler searchHandler = new Handler(Looper.getMainLooper());
+    // Las busquedas que terminan tarde no deben pisar a la ultima
+    private int generacionBusqueda = 0;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        aplicarTema();
+        TimestampFormatter.getInstance().setYesterdayLabel(getString(R.string.yesterday));
+        setContentView(R.layout.activity_search);
+
+        currentUser = FirebaseAuth.getInstance().getCurrentUser();
+        if (currentUser == null) {
+            finish();
+            return;
+        }
+        messageStore = MessageStore.getInstance(this);
+
+        ImageView btnBack = findViewById(R.id.btnBack);
+        etSearchMessages = findViewById(R.id.etSearchMessages);
+        recyclerViewResults = findViewById(R.id.recyclerViewResults);
+        tvNoResults = findViewById(R.id.tvNoResults);
+
+        searchResultAdapter = new SearchResultAdapter(currentUser.getUid(), this);
+        recyclerViewResults.setLayoutManager(new LinearLayoutManager(this));
+        recyclerViewResults.setAdapter(searchResultAdapter);
+
+        btnBack.setOnClickListener(v -> finish());
+        configurarBusqueda();
+        cargarConversaciones();
+        etSearchMessages.requestFocus();
+    }
+
+    private void aplicarTema() {
+        boolean isDark = LightSensorManager.getSavedTheme(this);
+
+        if (isDark) {
+            AppCompatDelegate.setDefaultNightMode(AppCompatDelegate.MODE_NIGHT_YES);
+        } else {
+            AppCompatDelegate.setDefaultNightMode(AppCompatDelegate.MODE_NIGHT_NO);
+        }
+    }
+
+    // Nombres y fotos de los chats desde la cache de Firestore, tambien sin red
+    private void cargarConversaciones() {
+        FirebaseFirestore.getInstance()
+                .collection("chats")
+                .whereArrayContains("participants", currentUser.getUid())
+                .get(Source.CACHE)
+                .addOnSuccessListener(queryDocumentSnapshots -> {
+                    if (isFinishing() || isDestroyed()) {
+                        return;
+                    }
+                    Map<String, Conversation> conversaciones = new HashMap<>();
+                    for (DocumentSnapshot document : queryDocumentSnapshots.getDocuments()) {
+                        Conversation conversation = document.toObject(Conversation.class);
+                        if (conversation != null) {
+                            conversation.setChatId(document.getId());
+                            conversaciones.put(document.getId(), conversation);
+                        }
+                    }
+                    searchResultAdapter.setConversations(conversaciones);
+                })
+                .addOnFailureListener(e -> Log.d("SEARCH", "Sin chats en cache: " + e.getMessage()));
+    }
+
+    private void configurarBusqueda() {
+        etSearchMessages.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                String texto = s.toString().trim();
+                searchHandler.removeCallbacksAndMessages(null);
+                searchHandler.postDelayed(() -> buscar(texto), SEARCH_DELAY_MS);
+            }
+        });
+    }
+
+    private void buscar(String texto) {
+        int generacion = ++generacionBusqueda;
+        if (texto.isEmpty()) {
+            searchResultAdapter.submitList(null);
+            tvNoResults.setVisibility(GONE);
+            return;
+        }
+
+        MessageStore.DISK_EXECUTOR.execute(() -> {
+            long inicio = SystemClock.elapsedRealtime();
+            List<MessageStore.SearchHit> resultados = messageStore.search(texto);
+            // Sin el texto buscado: es contenido privado de las conversaciones
+            Log.d("SEARCH", resultados.size() + " resultados en "
+                    + (SystemClock.elapsedRealtime() - inicio) + " ms");
+
+            runOnUiThread(() -> {
+                if (isFinishing() || isDestroyed() || generacion != generacionBusqueda) {
+                    return;
+                }
+                searchResultAdapter.submitList(resultados);
+                tvNoResults.setVisibility(resultados.isEmpty() ? VISIBLE : GONE);
+            });
+        });
+    }
+
+    @Override
+    public void onSearchHitClick(MessageStore.SearchHit hit) {
+        Message message = hit.message;
+        if (ChatIds.isGroup(hit.chatId)) {
+            Conversation conversation = searchResultAdapter.getConversation(hit.chatId);
+            Intent intent = new Intent(SearchActivity.this, ChatActivity.class);
+            intent.putExtra("groupChatId", hit.chatId);
+            intent.putExtra("groupTitle", conversation != null && conversation.getTitle() != null
+                    ? conversation.getTitle() : "Grupo");
+            intent.putExtra("searchMessageId", message.getMessageId());
+            intent.putExtra("searchTimestamp", message.getTimestamp());
+            startActivity(intent);
+            return;
+        }
+        String receiverId = currentUser.getUid().equals(message.getSenderId())
+                ? message.getReceiverId() : message.getSenderId();
+
+        String receiverName = null;
+        String receiverPhotoUrl = null;
+        Conversation conversation = searchResultAdapter.getConversation(hit.chatId);
+        if (conversation != null) {
+            if (conversation.getParticipantNames() != null) {
+                receiverName = conversation.getParticipantNames().get(receiverId);
+            }
+            if (conversation.getParticipantPhotos() != null) {
+                receiverPhotoUrl = conversation.getParticipantPhotos().get(receiverId);
+            }
+        }
+
+        Intent intent = new Intent(SearchActivity.this, ChatActivity.class);
+        intent.putExtra("receiverUserId", receiverId);
+        intent.putExtra("receiverName", receiverName != null ? receiverName : "Usuario");
+        intent.putExtra("receiverPhotoUrl", receiverPhotoUrl);
+        // ChatActivity abre la conversacion colocada en este mensaje
+        intent.putExtra("searchMessageId", message.getMessageId());
+        intent.putExtra("searchTimestamp", message.getTimestamp());
+        startActivity(intent);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        searchHandler.removeCallbacksAndMessages(null);
+    }
+}
@@ -0,0 +1,158 @@
+package adapters;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import daniel.chatapp.R;
+import models.Conversation;
+import utils.AvatarLoader;
+import utils.TimestampFormatter;
+
+public class ConversationAdapter extends ListAdapter<Conversation, ConversationAdapter.ConversationViewHolder> {
+
+    private String currentUserId;
+    private OnConversationClickListener listener;
+    // No leidos por chatId, los mantiene el UnreadTracker de las filas visibles
+    private Map<String, Long> unreadByChat = new HashMap<>();
+
+    private static final DiffUtil.ItemCallback<Conversation> DIFF_CALLBACK = new DiffUtil.ItemCallback<Conversation>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Conversation oldItem, @NonNull Conversation newItem) {
+            return Objects.equals(oldItem.getChatId(), newItem.getChatId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Conversation oldItem, @NonNull Conversation newItem) {
+            return oldItem.getLastTimestamp() == newItem.getLastTimestamp()
+                    && Objects.equals(oldItem.getLastMessage(), newItem.getLastMessage())
+                    && Objects.equals(oldItem.getTitle(), newItem.getTitle())
+                    && Objects.equals(oldItem.getParticipantNames(), newItem.getParticipantNames())
+                    && Objects.equals(oldItem.getParticipantPhotos(), newItem.getParticipantPhotos());
+        }
+    };
+
+    public ConversationAdapter(String currentUserId, OnConversationClickListener listener) {
+        super(DIFF_CALLBACK);
+        this.currentUserId = currentUserId;
+        this.listener = listener;
+    }
+
+    @NonNull
+    @Override
+    public ConversationViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_conversation, parent, false);
+        return new ConversationViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ConversationViewHolder holder, int position) {
+        Conversation conversation = getItem(position);
+        Long unread = unreadByChat.get(conversation.getChatId());
+        holder.bind(conversation, currentUserId, unread != null ? unread : 0, listener);
+    }
+
+    // Solo se repintan las filas cuyo contador cambia
+    public void setUnread(Map<String, Long> unread) {
+        Map<String, Long> anteriores = unreadByChat;
+        unreadByChat = new HashMap<>(unread);
+
+        List<Conversation> actual = getCurrentList();
+        for (int i = 0; i < actual.size(); i++) {
+            String chatId = actual.get(i).getChatId();
+            if (!Objects.equals(unreadByChat.get(chatId), anteriores.get(chatId))) {
+                notifyItemChanged(i);
+            }
+        }
+    }
+
+    public String getChatId(int position) {
+        return position >= 0 && position < getItemCount() ? getItem(position).getChatId() : null;
+    }
+
+    public String getPhotoUrl(int position) {
+        return position >= 0 && position < getItemCount() ? photoUrlDe(getItem(position), currentUserId) : null;
+    }
+
+    // Los grupos no tienen foto propia: se pinta el avatar por defecto
+    private static String photoUrlDe(Conversation conversation, String currentUserId) {
+        if (conversation.isGroup()) {
+            return null;
+        }
+        String otherId = conversation.getOtherParticipant(currentUserId);
+        return conversation.getParticipantPhotos() != null && otherId != null
+                ? conversation.getParticipantPhotos().get(otherId) : null;
+    }
+
+    public static class ConversationViewHolder extends RecyclerView.ViewHolder {
+        private ImageView ivConversationPhoto;
+        private TextView tvConversationName;
+        private TextView tvLastMessage;
+        private TextView tvConversationTime;
+        private TextView tvUnreadCount;
+        private final int avatarSize;
+
+        public ConversationViewHolder(View view) {
+            super(view);
+            ivConversationPhoto = itemView.findViewById(R.id.ivConversationPhoto);
+            tvConversationName = itemView.findViewById(R.id.tvConversationName);
+            tvLastMessage = itemView.findViewById(R.id.tvLastMessage);
+            tvConversationTime = itemView.findViewById(R.id.tvConversationTime);
+            tvUnreadCount = itemView.findViewById(R.id.tvUnreadCount);
+            avatarSize = view.getResources().getDimensionPixelSize(R.dimen.avatar_list);
+        }
+
+        public void bind(Conversation conversation, String currentUserId, long unread, OnConversationClickListener listener) {
+            String name = conversation.getDisplayName(currentUserId);
+            String photoUrl = photoUrlDe(conversation, currentUserId);
+
+            tvConversationName.setText(name != null ? name : "Usuario");
+
+            String preview = conversation.getLastMessage() != null ? conversation.getLastMessage() : "";
+            if (preview.isEmpty()) {
+                // Grupo recien creado, sin mensajes todavia
+                preview = conversation.isGroup() ? "Grupo creado" : preview;
+            } else if (currentUserId.equals(conversation.getLastSenderId())) {
+                preview = "Tú: " + preview;
+            } else if (conversation.isGroup()) {
+                // El nombre sale del propio resumen: no hace falta leer el usuario
+                String sender = conversation.getParticipantName(conversation.getLastSenderId());
+                preview = (sender != null ? sender : "Usuario") + ": " + preview;
+            }
+            tvLastMessage.setText(preview);
+            tvConversationTime.setText(
+                    TimestampFormatter.getInstance().formatMessageTime(conversation.getLastTimestamp()));
+
+            if (unread > 0) {
+                tvUnreadCount.setText(unread > 99 ? "99+" : String.valueOf(unread));
+                tvUnreadCount.setVisibility(View.VISIBLE);
+            } else {
+                tvUnreadCount.setVisibility(View.GONE);
+            }
+
+            AvatarLoader.load(ivConversationPhoto, photoUrl, avatarSize);
+
+            itemView.setOnClickListener(v -> {
+                if (listener != null) {
+                    listener.onConversationClick(conversation);
+                }
+            });
+        }
+    }
+
+    public interface OnConversationClickListener {
+        void onConversationClick(Conversation conversation);
+    }
+}
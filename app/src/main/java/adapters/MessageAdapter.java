@@ -1,45 +1,175 @@
 package adapters;
 
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
 import android.util.Log;
+import android.util.LruCache;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.resource.drawable.DrawableTransitionOptions;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 import daniel.chatapp.R;
 import models.Message;
+import utils.AvatarLoader;
+import utils.ImageProcessor;
+import utils.MessageDiff;
+import utils.MessageTextLayoutCache;
+import utils.TimestampFormatter;
 
-public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+public class MessageAdapter extends ListAdapter<Message, RecyclerView.ViewHolder> {
 
-    private List<Message> messageList;
     private String currentUserId;
 
+    // Mensajes que aun estan en la bandeja de salida
+    private Set<String> pendingIds = new HashSet<>();
+
+    // Solo en grupos: nombre y foto de cada miembro, sacados del documento del chat. Con null
+    // (chat uno a uno) las burbujas recibidas no muestran remitente
+    private Map<String, String> senderNames;
+    private Map<String, String> senderPhotos;
+
     // Tipos de vista
     private static final int VIEW_SENT = 1;
     private static final int VIEW_RECEIVED = 2;
+    private static final int VIEW_SENT_IMAGE = 3;
+    private static final int VIEW_RECEIVED_IMAGE = 4;
+
+    // Cuantas burbujas de cada tipo se guardan para reciclar; las imagenes son menos frecuentes
+    private static final int POOL_TEXT = 20;
+    private static final int POOL_IMAGE = 6;
+
+    // Vistas infladas por adelantado, opcional
+    private MessageViewCache viewCache;
+
+    // Texto de las burbujas medido en segundo plano; los parametros salen de la primera burbuja creada
+    private final MessageTextLayoutCache textLayoutCache = new MessageTextLayoutCache();
+    private PrecomputedTextCompat.Params textParams;
+
+    // Miniaturas ya decodificadas, para no repetir el Base64 en cada bind
+    private static final LruCache<String, Bitmap> thumbnailCache = new LruCache<>(100);
+
+    // El diff se calcula en segundo plano y se aplica de una sola vez por cada submitList
+    private static final DiffUtil.ItemCallback<Message> DIFF_CALLBACK = new DiffUtil.ItemCallback<Message>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Message oldItem, @NonNull Message newItem) {
+            return MessageDiff.sameItem(oldItem, newItem);
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Message oldItem, @NonNull Message newItem) {
+            return MessageDiff.sameContents(oldItem, newItem);
+        }
+    };
 
-    public MessageAdapter(List<Message> messageList, String currentUserId) {
-        this.messageList = messageList;
+    public MessageAdapter(String currentUserId) {
+        super(DIFF_CALLBACK);
         this.currentUserId = currentUserId;
     }
 
+    public void setViewCache(MessageViewCache viewCache) {
+        this.viewCache = viewCache;
+    }
+
+    // Un chat tiene muchas burbujas iguales en pantalla: el pool por defecto (5 por tipo) se queda corto
+    public static void configureViewPool(RecyclerView.RecycledViewPool pool) {
+        pool.setMaxRecycledViews(VIEW_SENT, POOL_TEXT);
+        pool.setMaxRecycledViews(VIEW_RECEIVED, POOL_TEXT);
+        pool.setMaxRecycledViews(VIEW_SENT_IMAGE, POOL_IMAGE);
+        pool.setMaxRecycledViews(VIEW_RECEIVED_IMAGE, POOL_IMAGE);
+    }
+
+    // Vista de la cache si ya esta inflada; si no, se infla aqui como siempre
+    private View inflar(ViewGroup parent, int layoutRes) {
+        View view = viewCache != null ? viewCache.take(layoutRes) : null;
+        if (view == null) {
+            view = LayoutInflater.from(parent.getContext()).inflate(layoutRes, parent, false);
+        }
+        return view;
+    }
+
+    // Los mensajes nuevos de cada submitList (pagina anterior, mensajes recibidos) se miden antes de llegar a pantalla
+    @Override
+    public void onCurrentListChanged(@NonNull List<Message> previousList, @NonNull List<Message> currentList) {
+        if (textParams == null) {
+            return;
+        }
+        Set<String> anteriores = new HashSet<>();
+        for (Message message : previousList) {
+            anteriores.add(message.getMessageId());
+        }
+        List<Message> nuevos = new ArrayList<>();
+        for (Message message : currentList) {
+            if (!anteriores.contains(message.getMessageId()) && !Message.TYPE_IMAGE.equals(message.getType())) {
+                nuevos.add(message);
+            }
+        }
+        textLayoutCache.precompute(nuevos, textParams);
+    }
+
+    private void registrarParametrosTexto(TextView textView) {
+        if (textParams == null) {
+            textParams = TextViewCompat.getTextMetricsParams(textView);
+            textLayoutCache.precompute(getCurrentList(), textParams);
+        }
+    }
+
+    // Solo se repintan los mensajes cuyo estado de envio ha cambiado
+    public void setPendingIds(Set<String> ids) {
+        Set<String> anteriores = pendingIds;
+        pendingIds = new HashSet<>(ids);
+
+        List<Message> actual = getCurrentList();
+        for (int i = 0; i < actual.size(); i++) {
+            String messageId = actual.get(i).getMessageId();
+            if (anteriores.contains(messageId) != pendingIds.contains(messageId)) {
+                notifyItemChanged(i);
+            }
+        }
+    }
+
+    // Los miembros del grupo llegan con un solo listener; solo se repinta si cambian
+    public void setSenders(Map<String, String> names, Map<String, String> photos) {
+        if (Objects.equals(names, senderNames) && Objects.equals(photos, senderPhotos)) {
+            return;
+        }
+        senderNames = names != null ? new HashMap<>(names) : null;
+        senderPhotos = photos != null ? new HashMap<>(photos) : null;
+        notifyItemRangeChanged(0, getItemCount());
+    }
+
     @Override
     public int getItemViewType(int position) {
-        Message message = messageList.get(position);
+        Message message = getItem(position);
+
+        boolean imagen = Message.TYPE_IMAGE.equals(message.getType());
 
         // Si el senderId coincide con el usuario actual, es un mensaje enviado
         if (message.getSenderId().equals(currentUserId)) {
-            return VIEW_SENT;
+            return imagen ? VIEW_SENT_IMAGE : VIEW_SENT;
         } else {
-            return VIEW_RECEIVED;
+            return imagen ? VIEW_RECEIVED_IMAGE : VIEW_RECEIVED;
         }
     }
 
@@ -47,46 +177,96 @@ public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
     @Override
     public RecyclerView.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         if (viewType == VIEW_SENT) {
-            View view = LayoutInflater.from(parent.getContext())
-                    .inflate(R.layout.item_message_sent, parent, false);
-            return new SentMessageViewHolder(view);
+            SentMessageViewHolder holder = new SentMessageViewHolder(inflar(parent, R.layout.item_message_sent));
+            registrarParametrosTexto(holder.tvMessageText);
+            return holder;
+        } else if (viewType == VIEW_SENT_IMAGE) {
+            return new ImageMessageViewHolder(inflar(parent, R.layout.item_message_sent_image));
+        } else if (viewType == VIEW_RECEIVED_IMAGE) {
+            return new ImageMessageViewHolder(inflar(parent, R.layout.item_message_received_image));
         } else {
-            View view = LayoutInflater.from(parent.getContext())
-                    .inflate(R.layout.item_message_received, parent, false);
-            return new ReceivedMessageViewHolder(view);
+            ReceivedMessageViewHolder holder = new ReceivedMessageViewHolder(inflar(parent, R.layout.item_message_received));
+            registrarParametrosTexto(holder.tvMessageText);
+            return holder;
         }
     }
 
     @Override
     public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
-        Message message = messageList.get(position);
+        Message message = getItem(position);
 
-        if (holder.getItemViewType() == VIEW_SENT) {
-            ((SentMessageViewHolder) holder).bind(message);
+        int viewType = holder.getItemViewType();
+        if (viewType == VIEW_SENT) {
+            ((SentMessageViewHolder) holder).bind(message, pendingIds.contains(message.getMessageId()), textLayoutCache);
+        } else if (viewType == VIEW_SENT_IMAGE) {
+            ((ImageMessageViewHolder) holder).bind(message, pendingIds.contains(message.getMessageId()));
+        } else if (viewType == VIEW_RECEIVED_IMAGE) {
+            ImageMessageViewHolder imageHolder = (ImageMessageViewHolder) holder;
+            imageHolder.bind(message, false);
+            bindSender(imageHolder.sender, message);
         } else {
-            ((ReceivedMessageViewHolder) holder).bind(message);
+            ReceivedMessageViewHolder receivedHolder = (ReceivedMessageViewHolder) holder;
+            receivedHolder.bind(message, textLayoutCache);
+            bindSender(receivedHolder.sender, message);
         }
     }
 
-    @Override
-    public int getItemCount() {
-        return messageList.size();
+    private void bindSender(SenderViews sender, Message message) {
+        if (senderNames == null) {
+            sender.hide();
+            return;
+        }
+        String name = senderNames.get(message.getSenderId());
+        sender.show(name != null ? name : "Usuario",
+                senderPhotos != null ? senderPhotos.get(message.getSenderId()) : null);
+    }
+
+    // Nombre y foto del remitente de las burbujas recibidas; ocultos fuera de los grupos
+    static class SenderViews {
+        final TextView tvSenderName;
+        final ImageView ivSenderPhoto;
+        final int avatarSize;
+
+        SenderViews(View itemView) {
+            tvSenderName = itemView.findViewById(R.id.tvSenderName);
+            ivSenderPhoto = itemView.findViewById(R.id.ivSenderPhoto);
+            avatarSize = itemView.getResources().getDimensionPixelSize(R.dimen.avatar_message);
+        }
+
+        void show(String name, String photoUrl) {
+            tvSenderName.setText(name);
+            tvSenderName.setVisibility(View.VISIBLE);
+            ivSenderPhoto.setVisibility(View.VISIBLE);
+            AvatarLoader.load(ivSenderPhoto, photoUrl, avatarSize);
+        }
+
+        void hide() {
+            tvSenderName.setVisibility(View.GONE);
+            ivSenderPhoto.setVisibility(View.GONE);
+        }
     }
 
     // ViewHolder para mensajes enviados
     static class SentMessageViewHolder extends RecyclerView.ViewHolder {
         TextView tvMessageText;
         TextView tvMessageTime;
+        TextView tvMessageStatus;
 
         public SentMessageViewHolder(@NonNull View itemView) {
             super(itemView);
             tvMessageText = itemView.findViewById(R.id.tvMessageText);
             tvMessageTime = itemView.findViewById(R.id.tvMessageTime);
+            tvMessageStatus = itemView.findViewById(R.id.tvMessageStatus);
         }
 
-        public void bind(Message message) {
-            tvMessageText.setText(message.getMessage());
+        public void bind(Message message, boolean pending, MessageTextLayoutCache textLayoutCache) {
+            textLayoutCache.apply(tvMessageText, message);
             tvMessageTime.setText(formatTime(message.getTimestamp()));
+            if (pending) {
+                tvMessageStatus.setText("Enviando…");
+            } else {
+                tvMessageStatus.setText(message.isRead() ? "✓✓" : "✓");
+            }
         }
     }
 
@@ -94,22 +274,97 @@ public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
     static class ReceivedMessageViewHolder extends RecyclerView.ViewHolder {
         TextView tvMessageText;
         TextView tvMessageTime;
+        SenderViews sender;
 
         public ReceivedMessageViewHolder(@NonNull View itemView) {
             super(itemView);
             tvMessageText = itemView.findViewById(R.id.tvMessageText);
             tvMessageTime = itemView.findViewById(R.id.tvMessageTime);
+            sender = new SenderViews(itemView);
+        }
+
+        public void bind(Message message, MessageTextLayoutCache textLayoutCache) {
+            textLayoutCache.apply(tvMessageText, message);
+            tvMessageTime.setText(formatTime(message.getTimestamp()));
+        }
+    }
+
+    // ViewHolder para imagenes, enviadas o recibidas; tvMessageStatus solo existe en las enviadas
+    // y el remitente solo en las recibidas
+    static class ImageMessageViewHolder extends RecyclerView.ViewHolder {
+        ImageView ivMessageImage;
+        TextView tvMessageTime;
+        TextView tvMessageStatus;
+        SenderViews sender;
+
+        public ImageMessageViewHolder(@NonNull View itemView) {
+            super(itemView);
+            ivMessageImage = itemView.findViewById(R.id.ivMessageImage);
+            tvMessageTime = itemView.findViewById(R.id.tvMessageTime);
+            tvMessageStatus = itemView.findViewById(R.id.tvMessageStatus);
+            if (itemView.findViewById(R.id.tvSenderName) != null) {
+                sender = new SenderViews(itemView);
+            }
         }
 
-        public void bind(Message message) {
-            tvMessageText.setText(message.getMessage());
+        public void bind(Message message, boolean pending) {
             tvMessageTime.setText(formatTime(message.getTimestamp()));
+            if (tvMessageStatus != null) {
+                if (pending) {
+                    tvMessageStatus.setText("Enviando…");
+                } else {
+                    tvMessageStatus.setText(message.isRead() ? "✓✓" : "✓");
+                }
+            }
+
+            // Se reserva el hueco con la proporcion real para que la lista no salte al cargar
+            ViewGroup.LayoutParams params = ivMessageImage.getLayoutParams();
+            if (message.getImageWidth() > 0 && message.getImageHeight() > 0) {
+                int alto = params.width * message.getImageHeight() / message.getImageWidth();
+                params.height = Math.max(params.width / 2, Math.min(alto, params.width * 3 / 2));
+            } else {
+                params.height = params.width;
+            }
+            ivMessageImage.setLayoutParams(params);
+
+            Context context = itemView.getContext();
+            Drawable placeholder = null;
+            Bitmap thumbnail = obtenerMiniatura(message);
+            if (thumbnail != null) {
+                placeholder = new BitmapDrawable(context.getResources(), thumbnail);
+            }
+
+            // Mientras se sube la imagen solo hay miniatura
+            if (message.getImageUrl() == null) {
+                Glide.with(context).clear(ivMessageImage);
+                ivMessageImage.setImageDrawable(placeholder);
+                return;
+            }
+
+            Glide.with(context)
+                    .load(message.getImageUrl())
+                    .placeholder(placeholder)
+                    .transition(DrawableTransitionOptions.withCrossFade())
+                    .into(ivMessageImage);
+        }
+    }
+
+    private static Bitmap obtenerMiniatura(Message message) {
+        if (message.getThumbnail() == null || message.getMessageId() == null) {
+            return null;
+        }
+        Bitmap bitmap = thumbnailCache.get(message.getMessageId());
+        if (bitmap == null) {
+            bitmap = ImageProcessor.decodeThumbnail(message.getThumbnail());
+            if (bitmap != null) {
+                thumbnailCache.put(message.getMessageId(), bitmap);
+            }
         }
+        return bitmap;
     }
 
-    // Metodo para formatear el timestamp a hora legible
+    // Metodo para formatear el timestamp a hora legible (cacheado por minuto, sin crear objetos en cada bind)
     private static String formatTime(long timestamp) {
-        SimpleDateFormat sdf = new SimpleDateFormat("HH:mm", Locale.getDefault());
-        return sdf.format(new Date(timestamp));
+        return TimestampFormatter.getInstance().formatMessageTime(timestamp);
     }
 }
\ No newline at end of file
@@ -0,0 +1,52 @@
+package adapters;
+
+import android.content.Context;
+import android.util.SparseArray;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.asynclayoutinflater.view.AsyncLayoutInflater;
+
+import java.util.ArrayDeque;
+
+// Burbujas infladas en segundo plano al abrir el chat, para que onCreateViewHolder no infle en el hilo principal
+public class MessageViewCache {
+
+    private final AsyncLayoutInflater inflater;
+    private final SparseArray<ArrayDeque<View>> viewsByLayout = new SparseArray<>();
+    private boolean released = false;
+
+    // Hay que crearlo en el hilo principal con el contexto de la Activity, para heredar su tema
+    public MessageViewCache(Context context) {
+        inflater = new AsyncLayoutInflater(context);
+    }
+
+    // Las vistas se generan con los LayoutParams del padre pero sin añadirse a el
+    public void warm(@NonNull ViewGroup parent, int layoutRes, int count) {
+        for (int i = 0; i < count; i++) {
+            inflater.inflate(layoutRes, parent, (view, resid, p) -> {
+                if (released) {
+                    return;
+                }
+                ArrayDeque<View> views = viewsByLayout.get(resid);
+                if (views == null) {
+                    views = new ArrayDeque<>();
+                    viewsByLayout.put(resid, views);
+                }
+                views.add(view);
+            });
+        }
+    }
+
+    // Devuelve una vista ya inflada o null si aun no hay ninguna lista
+    public View take(int layoutRes) {
+        ArrayDeque<View> views = viewsByLayout.get(layoutRes);
+        return views != null ? views.poll() : null;
+    }
+
+    public void release() {
+        released = true;
+        viewsByLayout.clear();
+    }
+}
@@ -0,0 +1,106 @@
+package adapters;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import daniel.chatapp.R;
+import models.Conversation;
+import utils.MessageStore;
+import utils.TimestampFormatter;
+
+public class SearchResultAdapter extends ListAdapter<MessageStore.SearchHit, SearchResultAdapter.SearchResultViewHolder> {
+
+    private String currentUserId;
+    private OnSearchHitClickListener listener;
+
+    // Resumen de cada chat para mostrar el nombre del otro participante
+    private Map<String, Conversation> conversationsById = new HashMap<>();
+
+    private static final DiffUtil.ItemCallback<MessageStore.SearchHit> DIFF_CALLBACK = new DiffUtil.ItemCallback<MessageStore.SearchHit>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull MessageStore.SearchHit oldItem, @NonNull MessageStore.SearchHit newItem) {
+            return Objects.equals(oldItem.message.getMessageId(), newItem.message.getMessageId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull MessageStore.SearchHit oldItem, @NonNull MessageStore.SearchHit newItem) {
+            return Objects.equals(oldItem.message.getMessage(), newItem.message.getMessage())
+                    && oldItem.message.getTimestamp() == newItem.message.getTimestamp();
+        }
+    };
+
+    public SearchResultAdapter(String currentUserId, OnSearchHitClickListener listener) {
+        super(DIFF_CALLBACK);
+        this.currentUserId = currentUserId;
+        this.listener = listener;
+    }
+
+    public void setConversations(Map<String, Conversation> conversations) {
+        conversationsById = new HashMap<>(conversations);
+        notifyItemRangeChanged(0, getItemCount());
+    }
+
+    public Conversation getConversation(String chatId) {
+        return conversationsById.get(chatId);
+    }
+
+    @NonNull
+    @Override
+    public SearchResultViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_search_result, parent, false);
+        return new SearchResultViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull SearchResultViewHolder holder, int position) {
+        MessageStore.SearchHit hit = getItem(position);
+        holder.bind(hit, conversationsById.get(hit.chatId), currentUserId, listener);
+    }
+
+    public static class SearchResultViewHolder extends RecyclerView.ViewHolder {
+        private TextView tvSearchName;
+        private TextView tvSearchTime;
+        private TextView tvSearchSnippet;
+
+        public SearchResultViewHolder(View view) {
+            super(view);
+            tvSearchName = itemView.findViewById(R.id.tvSearchName);
+            tvSearchTime = itemView.findViewById(R.id.tvSearchTime);
+            tvSearchSnippet = itemView.findViewById(R.id.tvSearchSnippet);
+        }
+
+        public void bind(MessageStore.SearchHit hit, Conversation conversation, String currentUserId,
+                         OnSearchHitClickListener listener) {
+            String name = conversation != null ? conversation.getDisplayName(currentUserId) : null;
+            tvSearchName.setText(name != null ? name : "Usuario");
+
+            String snippet = hit.message.getMessage() != null ? hit.message.getMessage() : "";
+            if (currentUserId.equals(hit.message.getSenderId())) {
+                snippet = "Tú: " + snippet;
+            }
+            tvSearchSnippet.setText(snippet);
+            tvSearchTime.setText(TimestampFormatter.getInstance().formatMessageTime(hit.message.getTimestamp()));
+
+            itemView.setOnClickListener(v -> {
+                if (listener != null) {
+                    listener.onSearchHitClick(hit);
+                }
+            });
+        }
+    }
+
+    public interface OnSearchHitClickListener {
+        void onSearchHitClick(MessageStore.SearchHit hit);
+    }
+}
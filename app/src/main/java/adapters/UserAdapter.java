@@ -1,6 +1,5 @@
 package adapters;
 
-import android.content.Context;
 import android.graphics.Color;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -9,21 +8,28 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
-import androidx.appcompat.app.AppCompatActivity;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.bumptech.glide.Glide;
-
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 import daniel.chatapp.R;
 import models.User;
+import utils.AvatarLoader;
+import utils.PresenceManager;
 
 public class UserAdapter extends RecyclerView.Adapter<UserAdapter.UserViewHolder> {
 
     private List<User> userList;
     private OnUserClickListener listener;
 
+    // Ultima conexion conocida por uid, la mantiene el PresenceTracker de las filas visibles
+    private Map<String, Long> lastSeenByUid = new HashMap<>();
+    // No leidos de mi chat con cada uid, los mantiene el UnreadTracker de las filas visibles
+    private Map<String, Long> unreadByUid = new HashMap<>();
+
     public UserAdapter(List<User> userList, OnUserClickListener listener) {
         this.userList = userList;
         this.listener = listener;
@@ -41,7 +47,40 @@ public class UserAdapter extends RecyclerView.Adapter<UserAdapter.UserViewHolder
     public void onBindViewHolder(@NonNull UserAdapter.UserViewHolder holder, int position) {
 
         User user=userList.get(position);
-        holder.bind(user,listener);
+        Long lastSeen = lastSeenByUid.get(user.getUid());
+        Long unread = unreadByUid.get(user.getUid());
+        holder.bind(user, lastSeen != null ? lastSeen : user.getLastSeen(), unread != null ? unread : 0, listener);
+    }
+
+    // Solo se repintan las filas cuya presencia ha cambiado
+    public void setLastSeen(Map<String, Long> lastSeen) {
+        Map<String, Long> anteriores = lastSeenByUid;
+        lastSeenByUid = new HashMap<>(lastSeen);
+
+        for (int i = 0; i < userList.size(); i++) {
+            String uid = userList.get(i).getUid();
+            Long nuevo = lastSeenByUid.get(uid);
+            if (nuevo != null && !nuevo.equals(anteriores.get(uid))) {
+                notifyItemChanged(i);
+            }
+        }
+    }
+
+    // Igual que la presencia: solo las filas cuyo contador cambia (un uid que desaparece del mapa vuelve a cero)
+    public void setUnread(Map<String, Long> unread) {
+        Map<String, Long> anteriores = unreadByUid;
+        unreadByUid = new HashMap<>(unread);
+
+        for (int i = 0; i < userList.size(); i++) {
+            String uid = userList.get(i).getUid();
+            if (!Objects.equals(unreadByUid.get(uid), anteriores.get(uid))) {
+                notifyItemChanged(i);
+            }
+        }
+    }
+
+    public String getPhotoUrl(int position) {
+        return position >= 0 && position < userList.size() ? userList.get(position).getPhotoUrl() : null;
     }
 
     @Override
@@ -53,6 +92,10 @@ public class UserAdapter extends RecyclerView.Adapter<UserAdapter.UserViewHolder
         private ImageView ivUserPhoto;
         private TextView tvUserName;
         private TextView tvUserEmail;
+        private TextView tvUserPresence;
+        private TextView tvUserUnread;
+        private View viewOnlineDot;
+        private final int avatarSize;
 
         public UserViewHolder(View view) {
 
@@ -61,37 +104,34 @@ public class UserAdapter extends RecyclerView.Adapter<UserAdapter.UserViewHolder
             ivUserPhoto = itemView.findViewById(R.id.ivUserPhoto);
             tvUserName = itemView.findViewById(R.id.tvUserName);
             tvUserEmail = itemView.findViewById(R.id.tvUserEmail);
+            tvUserPresence = itemView.findViewById(R.id.tvUserPresence);
+            tvUserUnread = itemView.findViewById(R.id.tvUserUnread);
+            viewOnlineDot = itemView.findViewById(R.id.viewOnlineDot);
+            avatarSize = view.getResources().getDimensionPixelSize(R.dimen.avatar_list);
         }
 
-        public void bind(User user, OnUserClickListener listener) {
+        public void bind(User user, long lastSeen, long unread, OnUserClickListener listener) {
             tvUserName.setText(user.getDisplayName() != null ? user.getDisplayName() : "Usuario");
             tvUserEmail.setText(user.getEmail());
 
-            if (user.getPhotoUrl() != null && !user.getPhotoUrl().isEmpty()) {
-
-                // Verificar que el contexto es válido
-                Context context = itemView.getContext();
-                if (context instanceof AppCompatActivity) {
-                    AppCompatActivity activity = (AppCompatActivity) context;
-                    if (!activity.isFinishing() && !activity.isDestroyed()) {
-                        Glide.with(context)
-                                .load(user.getPhotoUrl())
-                                .placeholder(R.drawable.ic_chat_logo)
-                                .error(R.drawable.ic_chat_logo)
-                                .into(ivUserPhoto);
-                    }
-                } else {
-                    // Si no es una Activity, usar el contexto directamente
-                    Glide.with(context.getApplicationContext())
-                            .load(user.getPhotoUrl())
-                            .placeholder(R.drawable.ic_chat_logo)
-                            .error(R.drawable.ic_chat_logo)
-                            .into(ivUserPhoto);
-                }
+            if (lastSeen > 0) {
+                tvUserPresence.setText(PresenceManager.formatPresence(lastSeen));
+                tvUserPresence.setVisibility(View.VISIBLE);
+                viewOnlineDot.setVisibility(PresenceManager.isOnline(lastSeen) ? View.VISIBLE : View.GONE);
             } else {
-                ivUserPhoto.setImageResource(R.drawable.ic_launcher_background);
+                tvUserPresence.setVisibility(View.GONE);
+                viewOnlineDot.setVisibility(View.GONE);
             }
 
+            if (unread > 0) {
+                tvUserUnread.setText(unread > 99 ? "99+" : String.valueOf(unread));
+                tvUserUnread.setVisibility(View.VISIBLE);
+            } else {
+                tvUserUnread.setVisibility(View.GONE);
+            }
+
+            AvatarLoader.load(ivUserPhoto, user.getPhotoUrl(), avatarSize);
+
             itemView.setOnClickListener(v -> {
                 if (listener != null) {
                     listener.onUserClick(user);
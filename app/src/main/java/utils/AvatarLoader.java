@@ -0,0 +1,103 @@
+package utils;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.graphics.drawable.Drawable;
+import android.widget.ImageView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.ListPreloader;
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.integration.recyclerview.RecyclerViewPreloader;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.request.RequestOptions;
+import com.bumptech.glide.util.FixedPreloadSizeProvider;
+
+import java.util.Collections;
+import java.util.List;
+
+import daniel.chatapp.R;
+
+// Carga unica de avatares: se pide el tamaño exacto de la vista y se recorta en circulo una sola vez
+public class AvatarLoader {
+
+    // Cuantas filas por delante se precargan al hacer scroll
+    private static final int PRELOAD_ROWS = 10;
+
+    // El resultado ya recortado y reducido es lo que se guarda en disco, no la foto original
+    private static final RequestOptions BASE_OPTIONS = new RequestOptions()
+            .circleCrop()
+            .diskCacheStrategy(DiskCacheStrategy.RESOURCE)
+            .placeholder(R.drawable.ic_chat_logo)
+            .error(R.drawable.ic_chat_logo)
+            .dontAnimate();
+
+    public interface PhotoUrlProvider {
+        // URL de la foto de la fila, o null si no tiene
+        String getPhotoUrl(int position);
+    }
+
+    private AvatarLoader() {
+    }
+
+    public static void load(ImageView imageView, String photoUrl, int sizePx) {
+        Context context = imageView.getContext();
+        if (!contextoValido(context)) {
+            return;
+        }
+        if (photoUrl == null || photoUrl.isEmpty()) {
+            Glide.with(context).clear(imageView);
+            imageView.setImageResource(R.drawable.ic_launcher_background);
+            return;
+        }
+        request(context, photoUrl, sizePx).into(imageView);
+    }
+
+    // Precarga en la cache de memoria los avatares de las filas que estan a punto de entrar en pantalla
+    public static RecyclerView.OnScrollListener createPreloader(Activity activity, int sizePx,
+                                                                PhotoUrlProvider provider) {
+        ListPreloader.PreloadModelProvider<String> modelProvider = new ListPreloader.PreloadModelProvider<String>() {
+            @NonNull
+            @Override
+            public List<String> getPreloadItems(int position) {
+                String url = provider.getPhotoUrl(position);
+                if (url == null || url.isEmpty()) {
+                    return Collections.emptyList();
+                }
+                return Collections.singletonList(url);
+            }
+
+            @Nullable
+            @Override
+            public RequestBuilder<?> getPreloadRequestBuilder(@NonNull String url) {
+                return request(activity, url, sizePx);
+            }
+        };
+        return new RecyclerViewPreloader<>(Glide.with(activity), modelProvider,
+                new FixedPreloadSizeProvider<>(sizePx, sizePx), PRELOAD_ROWS);
+    }
+
+    // Misma peticion para el bind y la precarga: si difieren, la precarga no sirve de nada
+    private static RequestBuilder<Drawable> request(Context context, String photoUrl, int sizePx) {
+        return Glide.with(context)
+                .load(photoUrl)
+                .apply(BASE_OPTIONS)
+                .override(sizePx, sizePx);
+    }
+
+    private static boolean contextoValido(Context context) {
+        while (context instanceof ContextWrapper && !(context instanceof Activity)) {
+            context = ((ContextWrapper) context).getBaseContext();
+        }
+        if (context instanceof Activity) {
+            Activity activity = (Activity) context;
+            return !activity.isFinishing() && !activity.isDestroyed();
+        }
+        return true;
+    }
+}
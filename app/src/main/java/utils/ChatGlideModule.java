@@ -0,0 +1,37 @@
+package utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.GlideBuilder;
+import com.bumptech.glide.annotation.GlideModule;
+import com.bumptech.glide.load.engine.cache.InternalCacheDiskCacheFactory;
+import com.bumptech.glide.load.engine.cache.LruResourceCache;
+import com.bumptech.glide.load.engine.cache.MemorySizeCalculator;
+import com.bumptech.glide.module.AppGlideModule;
+
+// Presupuestos de cache de Glide para toda la app
+@GlideModule
+public class ChatGlideModule extends AppGlideModule {
+
+    private static final long DISK_CACHE_BYTES = 100L * 1024 * 1024;
+
+    @Override
+    public void applyOptions(@NonNull Context context, @NonNull GlideBuilder builder) {
+        // Dos pantallas de bitmaps en memoria bastan para volver atras en la lista sin decodificar
+        MemorySizeCalculator calculator = new MemorySizeCalculator.Builder(context)
+                .setMemoryCacheScreens(2)
+                .build();
+        builder.setMemoryCache(new LruResourceCache(calculator.getMemoryCacheSize()));
+        builder.setDiskCache(new InternalCacheDiskCacheFactory(context, "glide_cache", DISK_CACHE_BYTES));
+        builder.setLogLevel(Log.ERROR);
+    }
+
+    // No hay modulos en el manifest, asi se evita analizarlo al arrancar
+    @Override
+    public boolean isManifestParsingEnabled() {
+        return false;
+    }
+}
@@ -0,0 +1,980 @@
+package utils;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.firebase.Timestamp;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.MetadataChanges;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import models.Message;
+import models.MessageBucket;
+import models.MessageMapper;
+
+// Mensajes de cada chat fuera del ciclo de vida de la Activity: un listener por chatId, compartido por todas
+// las pantallas que lo miran. Al rotar, la Activity nueva recoge la sesion ya cargada sin leer ni decodificar nada.
+// Todo se usa desde el hilo principal
+public class ChatRepository {
+
+    public static final int PAGE_SIZE = 30;
+    // Limite de operaciones de un WriteBatch
+    private static final int MAX_BATCH_WRITES = 500;
+    // Sesiones sin pantallas que se mantienen vivas, por si se vuelve al chat
+    private static final int MAX_IDLE_SESSIONS = 3;
+    private static final long IDLE_TIMEOUT_MS = 60_000;
+    // Reintentos de la primera carga del chat (ultima pagina o puesta al dia)
+    private static final long BASE_RETRY_MS = 1000;
+    private static final long MAX_RETRY_MS = 30_000;
+
+    private static ChatRepository instance;
+
+    private final FirebaseFirestore bd;
+    private final MessageStore messageStore;
+    private final MessageOutbox outbox;
+    private final MessageCompactor compactor;
+    private final ImageProcessor imageProcessor;
+    private final LatencyTracker latencias = LatencyTracker.getInstance();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // En orden de acceso: las primeras son las que llevan mas tiempo sin usarse
+    private final LinkedHashMap<String, ChatSession> sessions = new LinkedHashMap<>(8, 0.75f, true);
+
+    public interface ChatObserver {
+        // Lista completa y ordenada; es una copia que no se vuelve a modificar
+        void onMessagesChanged(List<Message> messages, boolean irAlFinal, boolean animado);
+
+        // Han llegado del servidor mensajes del otro usuario
+        void onMessagesReceived();
+    }
+
+    public static synchronized ChatRepository getInstance(Context context) {
+        if (instance == null) {
+            instance = new ChatRepository(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ChatRepository(Context context) {
+        bd = FirebaseFirestore.getInstance();
+        messageStore = MessageStore.getInstance(context);
+        outbox = MessageOutbox.getInstance(context);
+        compactor = MessageCompactor.getInstance(context);
+        imageProcessor = new ImageProcessor(context);
+    }
+
+    // Devuelve la sesion del chat, creandola si hace falta; si ya tenia mensajes se entregan al momento
+    public ChatSession acquire(String chatId, String currentUserId, ChatObserver observer) {
+        ChatSession session = sessions.get(chatId);
+        if (session != null && !session.currentUserId.equals(currentUserId)) {
+            session.cerrar();
+            session = null;
+        }
+        if (session == null) {
+            session = new ChatSession(chatId, currentUserId);
+            sessions.put(chatId, session);
+            session.abrir();
+        }
+        session.addObserver(observer);
+        return session;
+    }
+
+    // La sesion sigue escuchando un rato; se cierra al caducar o si hay demasiadas sin usar
+    public void release(ChatSession session, ChatObserver observer) {
+        session.observers.remove(observer);
+        if (session.observers.isEmpty()) {
+            session.idleSince = SystemClock.uptimeMillis();
+            recortar();
+            mainHandler.postDelayed(this::recortar, IDLE_TIMEOUT_MS);
+        }
+    }
+
+    // Al cerrar sesion no debe quedar nada del usuario anterior
+    public void closeAll() {
+        for (ChatSession session : sessions.values()) {
+            session.cerrar();
+        }
+        sessions.clear();
+        mainHandler.removeCallbacksAndMessages(null);
+    }
+
+    private void recortar() {
+        long ahora = SystemClock.uptimeMillis();
+        int inactivas = 0;
+        for (ChatSession session : sessions.values()) {
+            if (session.observers.isEmpty()) {
+                inactivas++;
+            }
+        }
+        Iterator<Map.Entry<String, ChatSession>> it = sessions.entrySet().iterator();
+        while (it.hasNext()) {
+            ChatSession session = it.next().getValue();
+            if (!session.observers.isEmpty()) {
+                continue;
+            }
+            if (inactivas > MAX_IDLE_SESSIONS || ahora - session.idleSince >= IDLE_TIMEOUT_MS) {
+                Log.d("CHAT_REPO", "Liberando chat " + session.chatId);
+                session.cerrar();
+                it.remove();
+                inactivas--;
+            }
+        }
+    }
+
+    public class ChatSession {
+
+        private final String chatId;
+        private final String currentUserId;
+        // En un grupo no hay confirmacion por mensaje: cada miembro guarda hasta donde ha leido (GroupChats)
+        private final boolean grupo;
+        private final List<ChatObserver> observers = new ArrayList<>();
+
+        private final List<Message> messageList = new ArrayList<>();
+        private final Set<String> idsCargados = new HashSet<>();
+        private List<Message> publicada = Collections.emptyList();
+
+        private ListenerRegistration messageListener;
+        private ListenerRegistration leidosListener;
+        private boolean cargada = false;
+        private boolean cerrada = false;
+        private boolean cargandoAnteriores = false;
+        private boolean cargandoPosteriores = false;
+        private boolean hayMasAnteriores = true;
+        // Ya no quedan documentos sueltos por delante: lo anterior esta sellado en buckets
+        private boolean colaAgotada = false;
+        private int intentosCarga = 0;
+        // Tras saltar a un resultado de busqueda la lista puede tener huecos: cada uno se guarda como el ultimo
+        // mensaje cargado antes de lo que falta, y se rellena desde disco al bajar hasta el
+        private final TreeSet<Message> huecos = new TreeSet<>(MessageOrdering.COMPARATOR);
+        // Si al abrir habia mas de una pagina nueva en el servidor solo se baja la ultima: lo que falta queda
+        // entre la marca guardada y el primer documento descargado, y se pide al subir con loadOlder
+        private Timestamp huecoServidorDesde;
+        private DocumentSnapshot huecoServidorHasta;
+        // serverTime mas reciente visto en un snapshot; no se guarda como marca mientras quede hueco
+        private Timestamp vistoHasta;
+        // Ultima marca de compactacion leida del documento del chat
+        private Long compactedUntil;
+        private String compactedUntilId;
+        private long idleSince;
+
+        // Confirmaciones de lectura: lo ya pedido y los enviados que el servidor aun da como no leidos
+        private final Set<String> leidosSolicitados = new HashSet<>();
+        // Marcas de lectura del documento del chat: hasta donde ha leido el otro y hasta donde hemos leido
+        private Long leidoHasta;
+        private String leidoHastaId;
+        private Long miLeidoHasta;
+        private String miLeidoHastaId;
+
+        private ChatSession(String chatId, String currentUserId) {
+            this.chatId = chatId;
+            this.currentUserId = currentUserId;
+            this.grupo = ChatIds.isGroup(chatId);
+        }
+
+        public String getChatId() {
+            return chatId;
+        }
+
+        public List<Message> getMessages() {
+            return publicada;
+        }
+
+        public boolean isLoaded() {
+            return cargada;
+        }
+
+        public CollectionReference mensajesRef() {
+            return bd.collection("chats")
+                    .document(chatId)
+                    .collection("messages");
+        }
+
+        private void addObserver(ChatObserver observer) {
+            if (observers.contains(observer)) {
+                return;
+            }
+            observers.add(observer);
+            if (cargada) {
+                observer.onMessagesChanged(publicada, true, false);
+            }
+        }
+
+        private void abrir() {
+            // Primero lo que ya hay en disco y despues solo lo nuevo
+            MessageStore.DISK_EXECUTOR.execute(() -> {
+                List<Message> locales = messageStore.getLatestMessages(chatId, PAGE_SIZE);
+                // La marca la mueven solo los snapshots, no los envios que confirma la bandeja de salida
+                long sincronizadoHasta = messageStore.getSyncedUntil(chatId);
+                // Lo que se quedo en la bandeja de salida tambien se ve, como pendiente
+                List<Message> pendientes = messageStore.getOutboxMessages(chatId);
+
+                mainHandler.post(() -> {
+                    if (cerrada) {
+                        return;
+                    }
+                    // Lo de la bandeja va en su sitio; si un mensaje ya esta en cache gana la version de la cache
+                    List<Message> iniciales = MessageOrdering.merge(pendientes, locales);
+                    for (Message message : iniciales) {
+                        idsCargados.add(message.getMessageId());
+                    }
+                    // Puede que ya se haya enviado algo mientras se leia el disco
+                    List<Message> mezcla = MessageOrdering.merge(messageList, iniciales);
+                    messageList.clear();
+                    messageList.addAll(mezcla);
+                    cargada = true;
+                    publicar(true, false);
+
+                    if (sincronizadoHasta >= 0) {
+                        ponerseAlDia(sincronizadoHasta);
+                    } else {
+                        cargarUltimaPagina();
+                    }
+                    if (!grupo) {
+                        escucharConfirmacionesDeLectura();
+                    }
+                    compactor.maybeCompact(chatId);
+                });
+            });
+        }
+
+        // Carga de disco alrededor de un mensaje concreto (resultado de busqueda): una pagina a cada lado.
+        // Hacia atras se sigue con loadOlder y hacia delante, si queda hueco hasta lo cargado, con loadNewer
+        public void loadFrom(String messageId, long timestamp) {
+            if (idsCargados.contains(messageId)) {
+                return;
+            }
+            MessageStore.DISK_EXECUTOR.execute(() -> {
+                List<Message> locales = messageStore.getMessagesBefore(chatId, timestamp, messageId, PAGE_SIZE);
+                List<Message> posteriores = messageStore.getMessagesFrom(chatId, timestamp, messageId, PAGE_SIZE + 1);
+
+                mainHandler.post(() -> {
+                    if (cerrada) {
+                        return;
+                    }
+                    anotarHueco(posteriores, PAGE_SIZE + 1);
+                    locales.addAll(posteriores);
+                    insertar(locales, false);
+                });
+            });
+        }
+
+        // Rellena el primer hueco que empiece antes de la posicion indicada (la ultima visible mas el margen)
+        public void loadNewer(int hastaPosicion) {
+            if (cargandoPosteriores || huecos.isEmpty()) {
+                return;
+            }
+            for (Message hueco : huecos) {
+                int indice = indiceDe(hueco.getMessageId());
+                if (indice >= 0 && indice <= hastaPosicion) {
+                    cargarPosteriores(hueco);
+                    return;
+                }
+            }
+        }
+
+        private void cargarPosteriores(Message hueco) {
+            cargandoPosteriores = true;
+            MessageStore.DISK_EXECUTOR.execute(() -> {
+                // Incluye el propio hueco, que ya esta en la lista y se descarta al insertar
+                List<Message> locales = messageStore.getMessagesFrom(
+                        chatId, hueco.getTimestamp(), hueco.getMessageId(), PAGE_SIZE + 1);
+
+                mainHandler.post(() -> {
+                    cargandoPosteriores = false;
+                    if (cerrada) {
+                        return;
+                    }
+                    huecos.remove(hueco);
+                    anotarHueco(locales, PAGE_SIZE + 1);
+                    insertar(locales, false);
+                });
+            });
+        }
+
+        // Pagina leida hacia delante: si esta completa y no llega a nada ya cargado, detras de ella falta algo.
+        // El primer mensaje es el cursor y no cuenta para el solape
+        private void anotarHueco(List<Message> pagina, int pedidos) {
+            if (pagina.size() < pedidos) {
+                // Se ha llegado al final de la cache, que es continua con la ultima pagina cargada
+                return;
+            }
+            for (int i = 1; i < pagina.size(); i++) {
+                if (idsCargados.contains(pagina.get(i).getMessageId())) {
+                    return;
+                }
+            }
+            huecos.add(pagina.get(pagina.size() - 1));
+        }
+
+        // Sin cache: se descarga la ultima pagina y se escucha solo a partir de ella
+        private void cargarUltimaPagina() {
+            mensajesRef()
+                    .orderBy("timestamp", Query.Direction.ASCENDING)
+                    .limitToLast(PAGE_SIZE)
+                    .get()
+                    .addOnSuccessListener(queryDocumentSnapshots -> {
+                        if (cerrada) {
+                            return;
+                        }
+                        List<Message> ultimos = new ArrayList<>();
+                        // Los mensajes anteriores a que existiera serverTime no lo tienen: se empieza por el principio
+                        long sincronizadoHasta = 0;
+                        for (DocumentSnapshot document : queryDocumentSnapshots.getDocuments()) {
+                            Message message = MessageMapper.fromMap(document.getData(), document.getId());
+                            if (message != null && idsCargados.add(message.getMessageId())) {
+                                ultimos.add(message);
+                            }
+                            Timestamp servidor = document.getTimestamp(MessageMapper.SERVER_TIME);
+                            if (servidor != null) {
+                                sincronizadoHasta = Math.max(sincronizadoHasta, servidor.toDate().getTime());
+                            }
+                        }
+                        colaAgotada = queryDocumentSnapshots.size() < PAGE_SIZE;
+                        intentosCarga = 0;
+
+                        messageList.addAll(ultimos);
+                        publicar(true, false);
+                        guardarEnCache(ultimos);
+                        // Cola corta: el resto de la primera pantalla sale del ultimo bucket
+                        if (colaAgotada) {
+                            loadOlder();
+                        }
+
+                        ponerseAlDia(sincronizadoHasta);
+                    })
+                    // Escuchar desde 0 seria traer el chat entero: se repite la pagina con backoff
+                    .addOnFailureListener(e -> {
+                        Log.e("CHAT_REPO", "Error al cargar la ultima pagina: " + e.getMessage());
+                        reintentar(this::cargarUltimaPagina);
+                    });
+        }
+
+        // Lo llegado desde la marca (serverTime, el reloj del emisor puede ir atrasado), como mucho una pagina.
+        // Si hay mas, lo anterior a esa pagina queda como hueco y el listener empieza en ella
+        private void ponerseAlDia(long sincronizadoHasta) {
+            Timestamp desde = new Timestamp(new Date(sincronizadoHasta));
+            mensajesRef()
+                    .whereGreaterThanOrEqualTo(MessageMapper.SERVER_TIME, desde)
+                    .orderBy(MessageMapper.SERVER_TIME, Query.Direction.ASCENDING)
+                    .limitToLast(PAGE_SIZE)
+                    .get()
+                    .addOnSuccessListener(queryDocumentSnapshots -> {
+                        if (cerrada) {
+                            return;
+                        }
+                        intentosCarga = 0;
+                        List<DocumentSnapshot> documentos = queryDocumentSnapshots.getDocuments();
+                        Timestamp escucharDesde = desde;
+                        if (documentos.size() >= PAGE_SIZE) {
+                            huecoServidorDesde = desde;
+                            huecoServidorHasta = documentos.get(0);
+                            Timestamp primero = documentos.get(0).getTimestamp(MessageMapper.SERVER_TIME);
+                            if (primero != null) {
+                                escucharDesde = primero;
+                            }
+                            Log.d("CHAT_REPO", "Mas de una pagina pendiente en " + chatId + ": se baja la ultima");
+                        }
+                        insertarDelServidor(documentos, true);
+                        escucharMensajesNuevos(escucharDesde);
+                    })
+                    .addOnFailureListener(e -> {
+                        Log.e("CHAT_REPO", "Error al ponerse al dia: " + e.getMessage());
+                        reintentar(() -> ponerseAlDia(sincronizadoHasta));
+                    });
+        }
+
+        private void reintentar(Runnable carga) {
+            if (cerrada) {
+                return;
+            }
+            long delay = Math.min(MAX_RETRY_MS, BASE_RETRY_MS << Math.min(intentosCarga, 16));
+            intentosCarga++;
+            mainHandler.postDelayed(() -> {
+                if (!cerrada) {
+                    carga.run();
+                }
+            }, delay);
+        }
+
+        // Documentos leidos con get(): se mezclan en su sitio, se guardan y avanzan la marca
+        private void insertarDelServidor(List<DocumentSnapshot> documentos, boolean irAlFinal) {
+            List<Message> mensajes = new ArrayList<>();
+            boolean hayRecibidos = false;
+            Timestamp hasta = null;
+            for (DocumentSnapshot document : documentos) {
+                Message message = MessageMapper.fromMap(document.getData(), document.getId());
+                if (message == null) {
+                    continue;
+                }
+                mensajes.add(message);
+                hayRecibidos |= !idsCargados.contains(message.getMessageId())
+                        && !currentUserId.equals(message.getSenderId());
+                hasta = masReciente(hasta, document.getTimestamp(MessageMapper.SERVER_TIME));
+            }
+            insertar(mensajes, irAlFinal);
+            guardarSincronizados(mensajes, hasta);
+            if (hayRecibidos) {
+                avisarRecibidos();
+            }
+        }
+
+        // Lo que falta entre la marca guardada y la primera pagina descargada, de la mas reciente hacia atras
+        private void cargarHuecoDelServidor() {
+            mensajesRef()
+                    .whereGreaterThanOrEqualTo(MessageMapper.SERVER_TIME, huecoServidorDesde)
+                    .orderBy(MessageMapper.SERVER_TIME, Query.Direction.ASCENDING)
+                    .endBefore(huecoServidorHasta)
+                    .limitToLast(PAGE_SIZE)
+                    .get()
+                    .addOnSuccessListener(queryDocumentSnapshots -> {
+                        cargandoAnteriores = false;
+                        if (cerrada) {
+                            return;
+                        }
+                        List<DocumentSnapshot> documentos = queryDocumentSnapshots.getDocuments();
+                        boolean cerrado = documentos.size() < PAGE_SIZE;
+                        if (cerrado) {
+                            huecoServidorDesde = null;
+                            huecoServidorHasta = null;
+                        } else {
+                            huecoServidorHasta = documentos.get(0);
+                        }
+                        insertarDelServidor(documentos, false);
+                        if (cerrado) {
+                            // Ya no falta nada: la marca puede llegar hasta lo ultimo que han visto los snapshots
+                            guardarMarca();
+                        }
+                    })
+                    .addOnFailureListener(e -> {
+                        cargandoAnteriores = false;
+                        Log.e("CHAT_REPO", "Error al cargar mensajes pendientes: " + e.getMessage());
+                    });
+        }
+
+        private void escucharMensajesNuevos(Timestamp desde) {
+            // Solo lo posterior a la marca (>= porque un lote entero comparte serverTime). Al no tener limite,
+            // un REMOVED aqui es un borrado real o un mensaje que se ha sellado en un bucket; el tamano inicial
+            // ya lo ha acotado ponerseAlDia. Con los cambios de metadatos llega tambien el momento en que el
+            // servidor confirma un mensaje propio
+            messageListener = mensajesRef()
+                    .whereGreaterThanOrEqualTo(MessageMapper.SERVER_TIME, desde)
+                    .orderBy(MessageMapper.SERVER_TIME, Query.Direction.ASCENDING)
+                    .addSnapshotListener(MetadataChanges.INCLUDE, (value, error) -> {
+                        if (error != null) {
+                            Log.e("CHAT_REPO", "Error al escuchar mensajes: " + error.getMessage());
+                            return;
+                        }
+                        if (value != null && !cerrada) {
+                            aplicarCambios(value);
+                        }
+                    });
+        }
+
+        // Aplica todos los cambios de un snapshot a la lista y publica una unica actualizacion
+        private void aplicarCambios(QuerySnapshot value) {
+            long llegada = LatencyTracker.now();
+            List<Message> guardados = new ArrayList<>();
+            List<Message> retirados = new ArrayList<>();
+            Timestamp hasta = null;
+            boolean hayNuevos = false;
+            boolean hayRecibidos = false;
+            boolean cambios = false;
+
+            for (DocumentChange dc : value.getDocumentChanges()) {
+                Message message = MessageMapper.fromMap(dc.getDocument().getData(), dc.getDocument().getId());
+                boolean pendiente = dc.getDocument().getMetadata().hasPendingWrites();
+
+                switch (dc.getType()) {
+                    case ADDED:
+                    case MODIFIED:
+                        if (!pendiente && currentUserId.equals(message.getSenderId())) {
+                            latencias.stop(LatencyTracker.Metric.SERVER_ECHO, message.getMessageId());
+                        }
+                        if (idsCargados.add(message.getMessageId())) {
+                            hayNuevos = true;
+                            hayRecibidos |= !currentUserId.equals(message.getSenderId());
+                        } else {
+                            int actual = indiceDe(message.getMessageId());
+                            if (actual >= 0 && MessageDiff.sameContents(messageList.get(actual), message)) {
+                                // Solo han cambiado los metadatos (eco local o confirmacion): nada que repintar
+                                break;
+                            }
+                            if (actual >= 0) {
+                                messageList.remove(actual);
+                            }
+                        }
+                        messageList.add(MessageOrdering.insertionIndex(messageList, message), message);
+                        // Los ecos locales se guardan en cache cuando la bandeja de salida recibe la confirmacion
+                        if (!pendiente) {
+                            guardados.add(message);
+                            hasta = masReciente(hasta, dc.getDocument().getTimestamp(MessageMapper.SERVER_TIME));
+                        }
+                        cambios = true;
+                        break;
+
+                    case REMOVED:
+                        // Puede ser un borrado o un mensaje sellado en un bucket; se decide con la marca del chat
+                        retirados.add(message);
+                        break;
+                }
+            }
+
+            guardarSincronizados(guardados, hasta);
+            if (!retirados.isEmpty()) {
+                comprobarRetirados(retirados);
+            }
+
+            if (cambios) {
+                // Se cierra cuando el adapter aplica la lista
+                if (!observers.isEmpty()) {
+                    latencias.start(LatencyTracker.Metric.SNAPSHOT_TO_BIND, chatId, llegada);
+                }
+                publicar(hayNuevos, true);
+            }
+
+            if (hayRecibidos && !value.getMetadata().hasPendingWrites()) {
+                avisarRecibidos();
+            }
+        }
+
+        private void avisarRecibidos() {
+            for (ChatObserver observer : new ArrayList<>(observers)) {
+                observer.onMessagesReceived();
+            }
+        }
+
+        // Lo que queda en o antes de compactedUntil se ha movido a un bucket: sigue existiendo y no se quita
+        // de la lista ni de la cache. Si la marca conocida no lo cubre se relee, porque el sellado la mueve
+        // en la misma transaccion que borra los documentos sueltos
+        private void comprobarRetirados(List<Message> retirados) {
+            List<Message> dudosos = new ArrayList<>();
+            for (Message message : retirados) {
+                if (!MessageBuckets.isCompacted(message.getTimestamp(), message.getMessageId(), compactedUntil, compactedUntilId)) {
+                    dudosos.add(message);
+                }
+            }
+            if (dudosos.isEmpty()) {
+                return;
+            }
+            bd.collection("chats").document(chatId).get()
+                    .addOnSuccessListener(chat -> {
+                        if (cerrada) {
+                            return;
+                        }
+                        compactedUntil = chat.getLong("compactedUntil");
+                        compactedUntilId = chat.getString("compactedUntilId");
+                        List<String> borrados = new ArrayList<>();
+                        for (Message message : dudosos) {
+                            if (MessageBuckets.isCompacted(message.getTimestamp(), message.getMessageId(), compactedUntil, compactedUntilId)) {
+                                continue;
+                            }
+                            int indice = indiceDe(message.getMessageId());
+                            if (indice >= 0) {
+                                messageList.remove(indice);
+                            }
+                            idsCargados.remove(message.getMessageId());
+                            borrados.add(message.getMessageId());
+                        }
+                        if (!borrados.isEmpty()) {
+                            MessageStore.DISK_EXECUTOR.execute(() -> messageStore.deleteMessages(borrados));
+                            publicar(false, true);
+                        }
+                    })
+                    // Sin la marca no se sabe si es un borrado: se deja en la lista hasta la proxima apertura
+                    .addOnFailureListener(e -> Log.e("CHAT_REPO", "Error al leer la marca de compactacion: " + e.getMessage()));
+        }
+
+        // Mensaje propio recien creado: se pinta al momento, la bandeja de salida se encarga de subirlo
+        public void addLocal(Message message) {
+            idsCargados.add(message.getMessageId());
+            messageList.add(MessageOrdering.insertionIndex(messageList, message), message);
+            publicar(true, true);
+        }
+
+        // La imagen se reduce y comprime en segundo plano; al terminar se pinta con su miniatura y se encola.
+        // No depende de ninguna pantalla: si se cierra antes, la imagen sale igual y no queda el fichero
+        // huerfano en outbox_images. Se pinta en la sesion que haya entonces, que puede ser otra
+        public void sendImage(Uri uri, String receiverId, String receiverName, String receiverPhotoUrl, Runnable onError) {
+            String messageId = mensajesRef()
+                    .document()
+                    .getId();
+            long timestamp = System.currentTimeMillis();
+
+            imageProcessor.process(uri, messageId, new ImageProcessor.OnImageProcessedListener() {
+                @Override
+                public void onImageProcessed(ImageProcessor.Result result) {
+                    // Se ha cerrado sesion mientras tanto: no debe salir a nombre de otra cuenta
+                    FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+                    if (user == null || !user.getUid().equals(currentUserId)) {
+                        if (!result.file.delete()) {
+                            Log.w("CHAT_REPO", "No se pudo borrar " + result.file);
+                        }
+                        return;
+                    }
+                    Message message = new Message(messageId, currentUserId, receiverId, "", timestamp);
+                    message.setType(Message.TYPE_IMAGE);
+                    message.setThumbnail(result.thumbnail);
+                    message.setImageWidth(result.width);
+                    message.setImageHeight(result.height);
+
+                    ChatSession actual = sessions.get(chatId);
+                    if (actual != null && actual.currentUserId.equals(currentUserId)) {
+                        actual.addLocal(message);
+                    }
+                    outbox.enqueueImage(chatId, message, receiverName, receiverPhotoUrl, result.file);
+                }
+
+                @Override
+                public void onImageError(Exception e) {
+                    onError.run();
+                }
+            });
+        }
+
+        // Marca como leidos los recibidos indicados con un unico WriteBatch
+        public void markRead(List<Message> visibles) {
+            if (grupo) {
+                return;
+            }
+            List<Message> leidos = new ArrayList<>();
+            WriteBatch batch = bd.batch();
+            Message ultimoLeido = null;
+
+            for (Message message : visibles) {
+                // Una escritura queda para la marca del chat
+                if (leidos.size() >= MAX_BATCH_WRITES - 1) {
+                    break;
+                }
+                if (!currentUserId.equals(message.getSenderId()) && !message.isRead()
+                        && leidosSolicitados.add(message.getMessageId())) {
+                    batch.update(mensajesRef().document(message.getMessageId()), "read", true);
+
+                    Message leido = new Message(message);
+                    leido.setRead(true);
+                    leidos.add(leido);
+                    if (ultimoLeido == null || MessageOrdering.COMPARATOR.compare(leido, ultimoLeido) > 0) {
+                        ultimoLeido = leido;
+                    }
+                }
+            }
+            if (leidos.isEmpty()) {
+                return;
+            }
+            // La marca solo avanza: leer algo antiguo al subir por el historial no la hace retroceder
+            if (!MessageOrdering.isAtOrBefore(ultimoLeido.getTimestamp(), ultimoLeido.getMessageId(), miLeidoHasta, miLeidoHastaId)) {
+                miLeidoHasta = ultimoLeido.getTimestamp();
+                miLeidoHastaId = ultimoLeido.getMessageId();
+                batch.set(bd.collection("chats").document(chatId), marcaDeLectura(miLeidoHasta, miLeidoHastaId), SetOptions.merge());
+            }
+
+            batch.commit().addOnFailureListener(e -> {
+                Log.e("CHAT_REPO", "Error al marcar mensajes como leidos: " + e.getMessage());
+                for (Message message : leidos) {
+                    leidosSolicitados.remove(message.getMessageId());
+                }
+            });
+
+            reemplazarMensajes(leidos);
+        }
+
+        // readUntil.{uid} y readUntilId.{uid}: el (timestamp, id) del ultimo mensaje leido por cada participante.
+        // Con merge solo se toca la entrada propia
+        private Map<String, Object> marcaDeLectura(long timestamp, String messageId) {
+            Map<String, Object> hasta = new HashMap<>();
+            hasta.put(currentUserId, timestamp);
+            Map<String, Object> hastaId = new HashMap<>();
+            hastaId.put(currentUserId, messageId);
+            Map<String, Object> marca = new HashMap<>();
+            marca.put("readUntil", hasta);
+            marca.put("readUntilId", hastaId);
+            return marca;
+        }
+
+        // Un solo documento, el del chat, en vez de una consulta sobre los mensajes enviados: lo que cuesta
+        // no depende del historial. Trae tambien la marca de compactacion
+        private void escucharConfirmacionesDeLectura() {
+            leidosListener = bd.collection("chats").document(chatId)
+                    .addSnapshotListener((chat, error) -> {
+                        if (error != null) {
+                            Log.e("CHAT_REPO", "Error al escuchar confirmaciones de lectura: " + error.getMessage());
+                            return;
+                        }
+                        if (chat == null || !chat.exists() || cerrada) {
+                            return;
+                        }
+                        compactedUntil = chat.getLong("compactedUntil");
+                        compactedUntilId = chat.getString("compactedUntilId");
+
+                        Object hasta = chat.get("readUntil");
+                        Object hastaId = chat.get("readUntilId");
+                        if (!(hasta instanceof Map) || !(hastaId instanceof Map)) {
+                            return;
+                        }
+                        for (Map.Entry<?, ?> entry : ((Map<?, ?>) hasta).entrySet()) {
+                            Object id = ((Map<?, ?>) hastaId).get(entry.getKey());
+                            if (!(entry.getValue() instanceof Number) || !(id instanceof String)) {
+                                continue;
+                            }
+                            long timestamp = ((Number) entry.getValue()).longValue();
+                            if (currentUserId.equals(entry.getKey())) {
+                                // Otro dispositivo de la misma cuenta puede haberla movido
+                                if (!MessageOrdering.isAtOrBefore(timestamp, (String) id, miLeidoHasta, miLeidoHastaId)) {
+                                    miLeidoHasta = timestamp;
+                                    miLeidoHastaId = (String) id;
+                                }
+                            } else {
+                                leidoHasta = timestamp;
+                                leidoHastaId = (String) id;
+                            }
+                        }
+                        sincronizarLeidos();
+                    });
+        }
+
+        // Todo enviado ya confirmado que queda en o antes de la marca del otro participante, esta leido
+        private void sincronizarLeidos() {
+            if (leidoHasta == null) {
+                return;
+            }
+            Set<String> pendientes = outbox.getPendingIds();
+            List<Message> leidos = new ArrayList<>();
+            for (Message message : messageList) {
+                if (currentUserId.equals(message.getSenderId()) && !message.isRead()
+                        && !pendientes.contains(message.getMessageId())
+                        && MessageOrdering.isAtOrBefore(message.getTimestamp(), message.getMessageId(), leidoHasta, leidoHastaId)) {
+                    Message leido = new Message(message);
+                    leido.setRead(true);
+                    leidos.add(leido);
+                }
+            }
+            reemplazarMensajes(leidos);
+        }
+
+        private void reemplazarMensajes(List<Message> actualizados) {
+            if (actualizados.isEmpty()) {
+                return;
+            }
+            for (Message message : actualizados) {
+                int indice = indiceDe(message.getMessageId());
+                if (indice >= 0) {
+                    messageList.set(indice, message);
+                }
+            }
+            guardarEnCache(actualizados);
+            publicar(false, false);
+        }
+
+        private int indiceDe(String messageId) {
+            // Los cambios suelen afectar a los mensajes recientes, asi que buscamos desde el final
+            for (int i = messageList.size() - 1; i >= 0; i--) {
+                if (messageList.get(i).getMessageId().equals(messageId)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        public void loadOlder() {
+            if (cargandoAnteriores || !hayMasAnteriores || (messageList.isEmpty() && !colaAgotada)) {
+                return;
+            }
+            cargandoAnteriores = true;
+            if (huecoServidorHasta != null) {
+                // Antes que la cache va lo que falta del servidor, que es mas reciente
+                cargarHuecoDelServidor();
+                return;
+            }
+            if (messageList.isEmpty()) {
+                // Toda la conversacion esta sellada
+                cargarAnterioresDeBuckets();
+                return;
+            }
+
+            Message primero = messageList.get(0);
+            MessageStore.DISK_EXECUTOR.execute(() -> {
+                List<Message> locales = messageStore.getMessagesBefore(
+                        chatId, primero.getTimestamp(), primero.getMessageId(), PAGE_SIZE);
+
+                mainHandler.post(() -> {
+                    if (cerrada) {
+                        cargandoAnteriores = false;
+                        return;
+                    }
+                    insertar(locales, false);
+
+                    if (locales.size() >= PAGE_SIZE) {
+                        cargandoAnteriores = false;
+                    } else if (colaAgotada) {
+                        cargarAnterioresDeBuckets();
+                    } else {
+                        // La cache se ha acabado: el resto viene de Firestore
+                        cargarAnterioresDeFirestore(PAGE_SIZE - locales.size());
+                    }
+                });
+            });
+        }
+
+        private void cargarAnterioresDeFirestore(int limite) {
+            // Cursor por (timestamp, id) para no saltarnos mensajes con el mismo timestamp
+            Message primero = messageList.get(0);
+            mensajesRef()
+                    .orderBy("timestamp", Query.Direction.ASCENDING)
+                    .orderBy(FieldPath.documentId(), Query.Direction.ASCENDING)
+                    .endBefore(primero.getTimestamp(), primero.getMessageId())
+                    .limitToLast(limite)
+                    .get()
+                    .addOnSuccessListener(queryDocumentSnapshots -> {
+                        cargandoAnteriores = false;
+                        if (cerrada) {
+                            return;
+                        }
+
+                        List<Message> anteriores = new ArrayList<>();
+                        for (DocumentSnapshot document : queryDocumentSnapshots.getDocuments()) {
+                            Message message = MessageMapper.fromMap(document.getData(), document.getId());
+                            if (message != null) {
+                                anteriores.add(message);
+                            }
+                        }
+                        colaAgotada = queryDocumentSnapshots.size() < limite;
+
+                        insertar(anteriores, false);
+                        guardarEnCache(anteriores);
+                    })
+                    .addOnFailureListener(e -> {
+                        cargandoAnteriores = false;
+                        Log.e("CHAT_REPO", "Error al cargar mensajes anteriores: " + e.getMessage());
+                    });
+        }
+
+        // Un bucket trae de una vez varios cientos de mensajes: el inmediatamente anterior a lo cargado
+        private void cargarAnterioresDeBuckets() {
+            Message primero = messageList.isEmpty() ? null : messageList.get(0);
+            Query query = MessageCompactor.bucketsRef(bd, chatId);
+            if (primero != null) {
+                query = query.whereLessThanOrEqualTo("lastTimestamp", primero.getTimestamp());
+            }
+            query.orderBy("lastTimestamp", Query.Direction.DESCENDING)
+                    .limit(1)
+                    .get()
+                    .addOnSuccessListener(queryDocumentSnapshots -> {
+                        cargandoAnteriores = false;
+                        if (cerrada) {
+                            return;
+                        }
+
+                        List<Message> anteriores = new ArrayList<>();
+                        for (DocumentSnapshot document : queryDocumentSnapshots.getDocuments()) {
+                            MessageBucket bucket = MessageMapper.bucketFromMap(document.getData());
+                            if (bucket != null && bucket.getMessages() != null) {
+                                anteriores.addAll(primero != null
+                                        ? MessageBuckets.before(bucket.getMessages(), primero)
+                                        : bucket.getMessages());
+                            }
+                        }
+                        hayMasAnteriores = !anteriores.isEmpty();
+
+                        insertar(anteriores, false);
+                        guardarEnCache(anteriores);
+                    })
+                    .addOnFailureListener(e -> {
+                        cargandoAnteriores = false;
+                        Log.e("CHAT_REPO", "Error al cargar el historial sellado: " + e.getMessage());
+                    });
+        }
+
+        // Mezcla en su sitio lo que no estuviera ya cargado
+        private void insertar(List<Message> mensajes, boolean irAlFinal) {
+            List<Message> nuevos = new ArrayList<>();
+            for (Message message : mensajes) {
+                if (idsCargados.add(message.getMessageId())) {
+                    nuevos.add(message);
+                }
+            }
+            if (!nuevos.isEmpty()) {
+                List<Message> mezcla = MessageOrdering.merge(messageList, nuevos);
+                messageList.clear();
+                messageList.addAll(mezcla);
+                publicar(irAlFinal, false);
+                sincronizarLeidos();
+            }
+        }
+
+        private void guardarEnCache(List<Message> messages) {
+            if (messages.isEmpty()) {
+                return;
+            }
+            List<Message> copia = new ArrayList<>(messages);
+            MessageStore.DISK_EXECUTOR.execute(() -> messageStore.saveMessages(chatId, copia));
+        }
+
+        // Mensajes leidos de Firestore: ademas de guardarlos, la marca avanza hasta el serverTime mas reciente.
+        // Con un hueco abierto solo se anota en memoria, para no saltarselo la proxima vez que se abra el chat
+        private void guardarSincronizados(List<Message> messages, Timestamp hasta) {
+            guardarEnCache(messages);
+            if (hasta != null) {
+                vistoHasta = masReciente(vistoHasta, hasta);
+                guardarMarca();
+            }
+        }
+
+        private void guardarMarca() {
+            if (huecoServidorHasta != null || vistoHasta == null) {
+                return;
+            }
+            long marca = vistoHasta.toDate().getTime();
+            MessageStore.DISK_EXECUTOR.execute(() -> messageStore.setSyncedUntil(chatId, marca));
+        }
+
+        private Timestamp masReciente(Timestamp a, Timestamp b) {
+            if (a == null) {
+                return b;
+            }
+            return b != null && b.compareTo(a) > 0 ? b : a;
+        }
+
+        // Una sola copia para todas las pantallas; el diff de cada adapter se calcula fuera del hilo principal
+        private void publicar(boolean irAlFinal, boolean animado) {
+            publicada = Collections.unmodifiableList(new ArrayList<>(messageList));
+            for (ChatObserver observer : new ArrayList<>(observers)) {
+                observer.onMessagesChanged(publicada, irAlFinal, animado);
+            }
+        }
+
+        private void cerrar() {
+            cerrada = true;
+            observers.clear();
+            if (messageListener != null) {
+                messageListener.remove();
+            }
+            if (leidosListener != null) {
+                leidosListener.remove();
+            }
+        }
+    }
+}
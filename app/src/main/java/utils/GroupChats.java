@@ -0,0 +1,92 @@
+package utils;
+
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import models.User;
+
+// Chats de grupo con reparto en lectura: cada mensaje se escribe una sola vez en chats/{chatId}/messages,
+// sea cual sea el numero de miembros. El documento del chat guarda la lista de miembros con nombre y foto
+// (para pintar las burbujas sin leer cada usuario) y el estado de cada miembro va aparte, en
+// chats/{chatId}/members/{uid} (uid, chatId, lastRead), escrito solo por ese miembro
+public class GroupChats {
+
+    // Crear el grupo es un unico WriteBatch: el chat y un documento por miembro, por debajo de 500
+    public static final int MAX_MEMBERS = 256;
+
+    private GroupChats() {
+    }
+
+    public static CollectionReference membersRef(FirebaseFirestore bd, String chatId) {
+        return bd.collection("chats")
+                .document(chatId)
+                .collection("members");
+    }
+
+    public static String newGroupId(FirebaseFirestore bd) {
+        return ChatIds.groupId(bd.collection("chats").document().getId());
+    }
+
+    // El creador va el primero y el grupo nace leido para el
+    public static Task<Void> create(FirebaseFirestore bd, String chatId, String title, User creator, List<User> members) {
+        List<String> participants = new ArrayList<>();
+        Map<String, Object> names = new HashMap<>();
+        Map<String, Object> photos = new HashMap<>();
+        List<User> todos = new ArrayList<>();
+        todos.add(creator);
+        todos.addAll(members);
+        for (User user : todos) {
+            if (participants.contains(user.getUid()) || participants.size() >= MAX_MEMBERS) {
+                continue;
+            }
+            participants.add(user.getUid());
+            names.put(user.getUid(), user.getDisplayName() != null ? user.getDisplayName() : "Usuario");
+            photos.put(user.getUid(), user.getPhotoUrl() != null ? user.getPhotoUrl() : "");
+        }
+
+        long now = System.currentTimeMillis();
+        Map<String, Object> chat = new HashMap<>();
+        chat.put("group", true);
+        chat.put("title", title);
+        chat.put("participants", participants);
+        chat.put("participantNames", names);
+        chat.put("participantPhotos", photos);
+        chat.put("lastMessage", "");
+        chat.put("lastSenderId", creator.getUid());
+        chat.put("lastTimestamp", now);
+
+        WriteBatch batch = bd.batch();
+        batch.set(bd.collection("chats").document(chatId), chat);
+        for (String uid : participants) {
+            batch.set(membersRef(bd, chatId).document(uid), member(chatId, uid, uid.equals(creator.getUid()) ? now : 0L));
+        }
+        return batch.commit();
+    }
+
+    // Una escritura en el documento propio del miembro; el resto del grupo no se entera
+    public static void markRead(FirebaseFirestore bd, String chatId, String uid) {
+        DocumentReference memberRef = membersRef(bd, chatId).document(uid);
+        memberRef.set(member(chatId, uid, System.currentTimeMillis()), SetOptions.merge())
+                .addOnFailureListener(e -> Log.e("GROUP", "Error al marcar el grupo como leido: " + e.getMessage()));
+    }
+
+    // uid y chatId van dentro del documento para poder consultarlos con collectionGroup("members")
+    private static Map<String, Object> member(String chatId, String uid, long lastRead) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("uid", uid);
+        data.put("chatId", chatId);
+        data.put("lastRead", lastRead);
+        return data;
+    }
+}
@@ -0,0 +1,95 @@
+package utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+// Lanza las primeras consultas de la pantalla principal mientras se ve el splash del sistema,
+// para que HomeActivity encuentre los datos en camino o ya en la cache de Firestore
+public class HomePrefetcher {
+
+    public static final int USERS_PAGE_SIZE = 20;
+    public static final int INBOX_LIMIT = 50;
+
+    private static final HomePrefetcher instance = new HomePrefetcher();
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private String uid;
+    private Task<QuerySnapshot> conversationsTask;
+    private Task<QuerySnapshot> usersTask;
+    private Task<DocumentSnapshot> profileTask;
+    private Task<?> readyTask;
+
+    public static HomePrefetcher getInstance() {
+        return instance;
+    }
+
+    private HomePrefetcher() {
+    }
+
+    public static Query conversationsQuery(FirebaseFirestore bd, String uid) {
+        return bd.collection("chats")
+                .whereArrayContains("participants", uid)
+                .orderBy("lastTimestamp", Query.Direction.DESCENDING)
+                .limit(INBOX_LIMIT);
+    }
+
+    public static Query usersQuery(FirebaseFirestore bd) {
+        return bd.collection("users").orderBy("displayName");
+    }
+
+    // Se llama desde el hilo principal
+    public void start(String uid) {
+        FirebaseFirestore bd = FirebaseFirestore.getInstance();
+        this.uid = uid;
+        conversationsTask = conversationsQuery(bd, uid).get();
+        usersTask = usersQuery(bd).limit(USERS_PAGE_SIZE).get();
+        profileTask = bd.collection("users").document(uid).get();
+        readyTask = Tasks.whenAllComplete(conversationsTask, profileTask);
+    }
+
+    // Avisa cuando la bandeja y el perfil han llegado, o al agotar la espera (sin red no se bloquea el arranque)
+    public void whenReady(long timeoutMs, Runnable callback) {
+        if (readyTask == null) {
+            callback.run();
+            return;
+        }
+        boolean[] avisado = {false};
+        Runnable avisar = () -> {
+            if (!avisado[0]) {
+                avisado[0] = true;
+                mainHandler.removeCallbacksAndMessages(avisado);
+                callback.run();
+            }
+        };
+        readyTask.addOnCompleteListener(task -> avisar.run());
+        mainHandler.postAtTime(avisar, avisado, SystemClock.uptimeMillis() + timeoutMs);
+    }
+
+    // Primera pagina del directorio ya pedida, o null; solo se puede tomar una vez
+    public Task<QuerySnapshot> takeUsersPage(String uid) {
+        if (!uid.equals(this.uid)) {
+            return null;
+        }
+        Task<QuerySnapshot> task = usersTask;
+        usersTask = null;
+        return task;
+    }
+
+    public Task<DocumentSnapshot> takeProfile(String uid) {
+        if (!uid.equals(this.uid)) {
+            return null;
+        }
+        Task<DocumentSnapshot> task = profileTask;
+        profileTask = null;
+        return task;
+    }
+}
@@ -0,0 +1,185 @@
+package utils;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Base64;
+import android.util.Log;
+
+import androidx.exifinterface.media.ExifInterface;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Prepara las imagenes antes de enviarlas: decodifica, reduce y vuelve a comprimir fuera del hilo principal
+public class ImageProcessor {
+
+    private static final int MAX_DIMENSION = 1280;
+    private static final int JPEG_QUALITY = 80;
+
+    // La miniatura va dentro del documento del mensaje, tiene que ocupar muy poco
+    private static final int THUMBNAIL_DIMENSION = 24;
+    private static final int THUMBNAIL_QUALITY = 40;
+
+    private static final ExecutorService IMAGE_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public interface OnImageProcessedListener {
+        void onImageProcessed(Result result);
+
+        void onImageError(Exception e);
+    }
+
+    public static class Result {
+        public final File file;
+        public final String thumbnail;
+        public final int width;
+        public final int height;
+
+        Result(File file, String thumbnail, int width, int height) {
+            this.file = file;
+            this.thumbnail = thumbnail;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    public ImageProcessor(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    // El resultado se entrega en el hilo principal
+    public void process(Uri uri, String messageId, OnImageProcessedListener listener) {
+        IMAGE_EXECUTOR.execute(() -> {
+            try {
+                Result result = procesar(uri, messageId);
+                mainHandler.post(() -> listener.onImageProcessed(result));
+            } catch (Exception e) {
+                Log.e("IMAGE", "Error al procesar imagen: " + e.getMessage());
+                mainHandler.post(() -> listener.onImageError(e));
+            }
+        });
+    }
+
+    private Result procesar(Uri uri, String messageId) throws IOException {
+        ContentResolver resolver = context.getContentResolver();
+
+        // Primero solo las dimensiones, para no cargar en memoria la foto original entera
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        try (InputStream input = resolver.openInputStream(uri)) {
+            BitmapFactory.decodeStream(input, null, bounds);
+        }
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            throw new IOException("No se pudo leer la imagen");
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = calcularSampleSize(bounds.outWidth, bounds.outHeight);
+        Bitmap decoded;
+        try (InputStream input = resolver.openInputStream(uri)) {
+            decoded = BitmapFactory.decodeStream(input, null, options);
+        }
+        if (decoded == null) {
+            throw new IOException("No se pudo decodificar la imagen");
+        }
+
+        Bitmap scaled = escalar(decoded, MAX_DIMENSION, leerRotacion(resolver, uri));
+        if (scaled != decoded) {
+            decoded.recycle();
+        }
+
+        File dir = new File(context.getFilesDir(), "outbox_images");
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("No se pudo crear " + dir);
+        }
+        File file = new File(dir, messageId + ".jpg");
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            scaled.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, output);
+        }
+
+        String thumbnail = crearMiniatura(scaled);
+        Result result = new Result(file, thumbnail, scaled.getWidth(), scaled.getHeight());
+        scaled.recycle();
+        return result;
+    }
+
+    // Mayor potencia de 2 que deja el lado largo por encima del maximo
+    private int calcularSampleSize(int width, int height) {
+        int sampleSize = 1;
+        int largest = Math.max(width, height);
+        while (largest / (sampleSize * 2) >= MAX_DIMENSION) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private int leerRotacion(ContentResolver resolver, Uri uri) {
+        try (InputStream input = resolver.openInputStream(uri)) {
+            if (input == null) {
+                return 0;
+            }
+            switch (new ExifInterface(input).getAttributeInt(
+                    ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL)) {
+                case ExifInterface.ORIENTATION_ROTATE_90:
+                    return 90;
+                case ExifInterface.ORIENTATION_ROTATE_180:
+                    return 180;
+                case ExifInterface.ORIENTATION_ROTATE_270:
+                    return 270;
+                default:
+                    return 0;
+            }
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private Bitmap escalar(Bitmap source, int maxDimension, int rotation) {
+        float scale = Math.min(1f, (float) maxDimension / Math.max(source.getWidth(), source.getHeight()));
+        if (scale == 1f && rotation == 0) {
+            return source;
+        }
+        Matrix matrix = new Matrix();
+        matrix.postScale(scale, scale);
+        matrix.postRotate(rotation);
+        return Bitmap.createBitmap(source, 0, 0, source.getWidth(), source.getHeight(), matrix, true);
+    }
+
+    // Miniatura diminuta en Base64: al ampliarla en pantalla se ve desenfocada, que es lo que buscamos
+    private String crearMiniatura(Bitmap source) {
+        float scale = (float) THUMBNAIL_DIMENSION / Math.max(source.getWidth(), source.getHeight());
+        int width = Math.max(1, Math.round(source.getWidth() * scale));
+        int height = Math.max(1, Math.round(source.getHeight() * scale));
+        Bitmap thumbnail = Bitmap.createScaledBitmap(source, width, height, true);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        thumbnail.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, output);
+        thumbnail.recycle();
+        return Base64.encodeToString(output.toByteArray(), Base64.NO_WRAP);
+    }
+
+    public static Bitmap decodeThumbnail(String thumbnail) {
+        if (thumbnail == null || thumbnail.isEmpty()) {
+            return null;
+        }
+        try {
+            byte[] bytes = Base64.decode(thumbnail, Base64.NO_WRAP);
+            return BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.util.Log;
+
+import com.google.firebase.storage.FirebaseStorage;
+import com.google.firebase.storage.StorageException;
+import com.google.firebase.storage.StorageMetadata;
+import com.google.firebase.storage.StorageReference;
+import com.google.firebase.storage.UploadTask;
+
+import java.io.File;
+
+import daniel.chatapp.BuildConfig;
+
+// Sube las imagenes a Storage por trozos; si la app se cierra a medias, la subida se reanuda donde iba
+public class ImageUploader {
+
+    private static final String PREFS_NAME = "image_uploads";
+
+    private static boolean emulatorConfigured = false;
+
+    private final FirebaseStorage storage;
+    private final SharedPreferences prefs;
+
+    public interface OnUploadListener {
+        void onUploadComplete(String downloadUrl);
+
+        void onUploadError(Exception e);
+    }
+
+    public ImageUploader(Context context) {
+        storage = getStorage();
+        prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    private static synchronized FirebaseStorage getStorage() {
+        FirebaseStorage storage = FirebaseStorage.getInstance();
+        // useEmulator solo se puede llamar una vez y antes de cualquier subida
+        if (BuildConfig.USE_FIREBASE_EMULATOR && !emulatorConfigured) {
+            storage.useEmulator("10.0.2.2", 9199);
+            emulatorConfigured = true;
+        }
+        return storage;
+    }
+
+    public void upload(String chatId, String messageId, File file, OnUploadListener listener) {
+        StorageReference ref = storage.getReference()
+                .child("chats")
+                .child(chatId)
+                .child(messageId + ".jpg");
+        StorageMetadata metadata = new StorageMetadata.Builder()
+                .setContentType("image/jpeg")
+                .build();
+
+        String session = prefs.getString(messageId, null);
+        UploadTask task = session != null
+                ? ref.putFile(Uri.fromFile(file), metadata, Uri.parse(session))
+                : ref.putFile(Uri.fromFile(file), metadata);
+
+        task.addOnProgressListener(snapshot -> {
+                    // Se guarda la sesion en cuanto existe para poder reanudar tras un cierre
+                    Uri sessionUri = snapshot.getUploadSessionUri();
+                    if (sessionUri != null && !sessionUri.toString().equals(prefs.getString(messageId, null))) {
+                        prefs.edit().putString(messageId, sessionUri.toString()).apply();
+                    }
+                })
+                .continueWithTask(t -> {
+                    if (!t.isSuccessful()) {
+                        throw t.getException();
+                    }
+                    return ref.getDownloadUrl();
+                })
+                .addOnSuccessListener(uri -> {
+                    prefs.edit().remove(messageId).apply();
+                    listener.onUploadComplete(uri.toString());
+                })
+                .addOnFailureListener(e -> {
+                    Log.e("UPLOAD", "Error al subir imagen: " + e.getMessage());
+                    // Sin red la sesion sigue valiendo; cualquier otro error obliga a empezar de cero
+                    boolean sinRed = e instanceof StorageException
+                            && ((StorageException) e).getErrorCode() == StorageException.ERROR_RETRY_LIMIT_EXCEEDED;
+                    if (!sinRed) {
+                        prefs.edit().remove(messageId).apply();
+                    }
+                    listener.onUploadError(e);
+                });
+    }
+}
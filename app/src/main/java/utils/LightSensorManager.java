@@ -6,8 +6,15 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.List;
+
+// Motor de tema unico para toda la app: un solo listener del sensor compartido por todas las pantallas
 public class LightSensorManager implements SensorEventListener {
 
 
@@ -16,33 +23,62 @@ public class LightSensorManager implements SensorEventListener {
     private static final float LIGHT_LIGHT = 150.0f;// Umbral para cambiar a modo Blanco
     private static final long CHANGE_DELAY_MS = 5000;
 
-    private SensorManager sensorManager;
-    private Sensor lightSensor;
-    private OnThemeChangeListener themeChangedListener;
-    private Context context;
-    private boolean isDarkMode;
+    // Filtro paso bajo: cuanto menor, mas suaviza los picos (una sombra, una farola al pasar)
+    private static final float FILTER_ALPHA = 0.2f;
+
+    // Muestreo rapido mientras la luz cambia y lento cuando lleva un rato estable
+    private static final int FAST_SAMPLING_US = 500_000;
+    private static final int SLOW_SAMPLING_US = 2_000_000;
+    // El sensor puede acumular lecturas y entregarlas juntas, sin despertar la CPU en cada una
+    private static final int MAX_REPORT_LATENCY_US = 5_000_000;
+    private static final float STABLE_DELTA = 0.1f;
+    private static final int STABLE_SAMPLES = 10;
+
+    private static LightSensorManager instance;
+
+    private final SensorManager sensorManager;
+    private final Sensor lightSensor;
+    private final SharedPreferences preferences;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Las lecturas llegan en su propio hilo, no en el principal
+    private final Handler sensorHandler;
+    private final List<OnThemeChangeListener> listeners = new ArrayList<>();
+
+    private volatile boolean isDarkMode;
     private long lastChangeTime = 0;
 
-    private boolean isChangingTheme = false;
+    // Solo se tocan desde el hilo del sensor
+    private float filteredLux = -1f;
+    private int stableCount = 0;
+    private int samplingPeriodUs = FAST_SAMPLING_US;
+    private boolean listening = false;
 
     public interface OnThemeChangeListener {
         void onThemeChanged(boolean isDarkMode);
 
     }
 
-    public LightSensorManager(Context context, OnThemeChangeListener listener) {
+    public static synchronized LightSensorManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new LightSensorManager(context.getApplicationContext());
+        }
+        return instance;
+    }
 
-        this.context = context;
-        this.themeChangedListener = listener;
+    private LightSensorManager(Context context) {
 
         sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
-        lightSensor = sensorManager.getDefaultSensor(Sensor.TYPE_LIGHT);
+        lightSensor = sensorManager != null ? sensorManager.getDefaultSensor(Sensor.TYPE_LIGHT) : null;
 
-        SharedPreferences preferences = context.getSharedPreferences("theme", Context.MODE_PRIVATE);
+        preferences = context.getSharedPreferences("theme", Context.MODE_PRIVATE);
         isDarkMode = preferences.getBoolean("is_dark_mode", false);
 
         lastChangeTime = System.currentTimeMillis();
 
+        HandlerThread thread = new HandlerThread("light-sensor");
+        thread.start();
+        sensorHandler = new Handler(thread.getLooper());
+
         if (lightSensor == null) {
             Log.e("LIGHT", "Sensor de luz no disponible en este dispositivo");
         } else {
@@ -51,68 +87,131 @@ public class LightSensorManager implements SensorEventListener {
 
     }
 
-    public void startListening() {
-        if (lightSensor != null && sensorManager != null) {
-            boolean registered = sensorManager.registerListener(
-                    this,
-                    lightSensor,
-                    SensorManager.SENSOR_DELAY_NORMAL
-            );
-
-            if (registered) {
-                Log.d("LIGHT_SENSOR", "Listener registrado");
-                // Resetear la bandera cuando se vuelve a registrar
-                isChangingTheme = false;
-            } else {
-                Log.e("LIGHT_SENSOR", " Error al registrar listener");
-            }
+    // Las pantallas se apuntan en onResume y se borran en onPause; el sensor solo escucha si hay alguna
+    public void addListener(OnThemeChangeListener listener) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+        if (!listeners.isEmpty()) {
+            sensorHandler.post(this::startListening);
         }
     }
 
-    public void stopListening() {
-        if (lightSensor != null) {
+    public void removeListener(OnThemeChangeListener listener) {
+        listeners.remove(listener);
+        if (listeners.isEmpty()) {
+            sensorHandler.post(this::stopListening);
+        }
+    }
+
+    public boolean isDarkMode() {
+        return isDarkMode;
+    }
+
+    private void startListening() {
+        if (lightSensor == null || listening) {
+            return;
+        }
+        // Al volver de segundo plano no se sabe cuanta luz hay: se empieza rapido
+        stableCount = 0;
+        registrar(FAST_SAMPLING_US);
+    }
+
+    private void stopListening() {
+        if (lightSensor == null || !listening) {
+            return;
+        }
+        sensorManager.unregisterListener(this);
+        listening = false;
+        Log.d("LIGHT_SENSOR", "Listener desregistrado");
+    }
+
+    private void registrar(int periodUs) {
+        if (listening) {
             sensorManager.unregisterListener(this);
         }
+        boolean registered = sensorManager.registerListener(
+                this,
+                lightSensor,
+                periodUs,
+                MAX_REPORT_LATENCY_US,
+                sensorHandler
+        );
+
+        listening = registered;
+        samplingPeriodUs = periodUs;
+        if (registered) {
+            Log.d("LIGHT_SENSOR", "Listener registrado cada " + periodUs / 1000 + " ms");
+        } else {
+            Log.e("LIGHT_SENSOR", " Error al registrar listener");
+        }
     }
 
     @Override
     public void onSensorChanged(SensorEvent event) {
 
-        if (event.sensor.getType() == Sensor.TYPE_LIGHT) {
-            float lightLevel = event.values[0];
-            if (isChangingTheme){
-                return;
-            }
-            boolean sholdBeDark;
+        if (event.sensor.getType() != Sensor.TYPE_LIGHT) {
+            return;
+        }
+        float lightLevel = event.values[0];
+        if (filteredLux < 0) {
+            filteredLux = lightLevel;
+        } else {
+            filteredLux += FILTER_ALPHA * (lightLevel - filteredLux);
+        }
+        ajustarMuestreo(lightLevel);
 
-            if (isDarkMode) {
-                sholdBeDark = lightLevel < LIGHT_LIGHT;
-            } else {
-                sholdBeDark = lightLevel < LIGHT_DARK;
-            }
-            long currentTime = System.currentTimeMillis();
-            boolean enoughTimePassed = (currentTime - lastChangeTime) > CHANGE_DELAY_MS;
+        boolean sholdBeDark;
+
+        if (isDarkMode) {
+            sholdBeDark = filteredLux < LIGHT_LIGHT;
+        } else {
+            sholdBeDark = filteredLux < LIGHT_DARK;
+        }
+        long currentTime = System.currentTimeMillis();
+        boolean enoughTimePassed = (currentTime - lastChangeTime) > CHANGE_DELAY_MS;
 
 
-            if (sholdBeDark != isDarkMode && enoughTimePassed) {
+        if (sholdBeDark != isDarkMode && enoughTimePassed) {
 
-                isDarkMode = sholdBeDark;
-                lastChangeTime = currentTime;
+            boolean dark = sholdBeDark;
+            isDarkMode = dark;
+            lastChangeTime = currentTime;
 
-                // Guardar el nuevo tema
-                SharedPreferences preferences = context.getSharedPreferences("theme", Context.MODE_PRIVATE);
-                preferences.edit().putBoolean("is_dark_mode", isDarkMode).apply();
+            // Solo se guarda cuando cambia el tema, como mucho una vez cada CHANGE_DELAY_MS;
+            // apply() deja la escritura a disco en segundo plano
+            preferences.edit().putBoolean("is_dark_mode", dark).apply();
 
-                // Notificar al listener
-                if (themeChangedListener != null) {
-                    themeChangedListener.onThemeChanged(isDarkMode);
+            // Notificar a las pantallas en el hilo principal
+            mainHandler.post(() -> {
+                for (OnThemeChangeListener listener : new ArrayList<>(listeners)) {
+                    listener.onThemeChanged(dark);
                 }
+            });
+        }
+    }
+
+    // Si la lectura se separa poco del valor filtrado durante varias muestras, se baja la frecuencia
+    private void ajustarMuestreo(float lightLevel) {
+        boolean stable = Math.abs(lightLevel - filteredLux) <= Math.max(1f, filteredLux * STABLE_DELTA);
+        if (stable) {
+            stableCount++;
+            if (stableCount >= STABLE_SAMPLES && samplingPeriodUs != SLOW_SAMPLING_US) {
+                registrar(SLOW_SAMPLING_US);
+            }
+        } else {
+            stableCount = 0;
+            if (samplingPeriodUs != FAST_SAMPLING_US) {
+                registrar(FAST_SAMPLING_US);
             }
         }
     }
 
 
     public static boolean getSavedTheme(Context context) {
+        if (instance != null) {
+            return instance.isDarkMode();
+        }
         SharedPreferences prefs = context.getSharedPreferences("theme", Context.MODE_PRIVATE);
         return prefs.getBoolean("is_dark_mode", false);
     }
@@ -0,0 +1,142 @@
+package utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.google.firebase.firestore.AggregateSource;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.Query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import daniel.chatapp.BuildConfig;
+import models.Message;
+import models.MessageBucket;
+import models.MessageMapper;
+
+// Sella el historial antiguo de un chat en documentos bucket (chats/{chatId}/buckets) y borra los
+// mensajes sueltos que contiene, para que abrir un chat largo cueste unas pocas lecturas.
+// Lo ejecuta cualquier participante al abrir el chat; el documento del chat hace de cerrojo
+public class MessageCompactor {
+
+    private static final String PREFS_NAME = "message_compaction";
+    // Como mucho una comprobacion por chat cada 12 horas
+    private static final long CHECK_INTERVAL_MS = 12L * 60 * 60 * 1000;
+
+    private static MessageCompactor instance;
+
+    private final FirebaseFirestore bd;
+    private final SharedPreferences prefs;
+
+    public static synchronized MessageCompactor getInstance(Context context) {
+        if (instance == null) {
+            instance = new MessageCompactor(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private MessageCompactor(Context context) {
+        bd = FirebaseFirestore.getInstance();
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public static CollectionReference bucketsRef(FirebaseFirestore bd, String chatId) {
+        return bd.collection("chats")
+                .document(chatId)
+                .collection("buckets");
+    }
+
+    // Primero un recuento agregado (una lectura por cada mil entradas de indice); solo si hay
+    // suficientes mensajes sellables se leen y se compactan
+    public void maybeCompact(String chatId) {
+        if (!BuildConfig.COMPACT_MESSAGES) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - prefs.getLong(chatId, 0) < CHECK_INTERVAL_MS) {
+            return;
+        }
+        prefs.edit().putLong(chatId, now).apply();
+
+        Query antiguos = mensajesRef(chatId).whereLessThan("timestamp", now - MessageBuckets.SEAL_AGE_MS);
+        antiguos.count()
+                .get(AggregateSource.SERVER)
+                .addOnSuccessListener(snapshot -> {
+                    if (snapshot.getCount() >= MessageBuckets.MIN_BUCKET_SIZE) {
+                        compactar(chatId, now);
+                    }
+                })
+                .addOnFailureListener(e -> Log.e("COMPACT", "Error al contar mensajes: " + e.getMessage()));
+    }
+
+    private void compactar(String chatId, long now) {
+        mensajesRef(chatId)
+                .orderBy("timestamp", Query.Direction.ASCENDING)
+                .orderBy(FieldPath.documentId(), Query.Direction.ASCENDING)
+                .limit(MessageBuckets.BUCKET_SIZE)
+                .get()
+                .addOnSuccessListener(queryDocumentSnapshots -> {
+                    List<Message> cola = new ArrayList<>();
+                    for (DocumentSnapshot document : queryDocumentSnapshots.getDocuments()) {
+                        Message message = MessageMapper.fromMap(document.getData(), document.getId());
+                        if (message != null) {
+                            cola.add(message);
+                        }
+                    }
+                    List<Message> sellados = MessageBuckets.sealablePrefix(cola, now);
+                    if (!sellados.isEmpty()) {
+                        sellar(chatId, sellados);
+                    }
+                })
+                .addOnFailureListener(e -> Log.e("COMPACT", "Error al leer la cola: " + e.getMessage()));
+    }
+
+    // En una transaccion: si otro participante ha compactado a la vez, el documento del chat habra
+    // cambiado y la transaccion se repite, ve el nuevo compactedUntil y no hace nada
+    private void sellar(String chatId, List<Message> sellados) {
+        DocumentReference chatRef = bd.collection("chats").document(chatId);
+        Message primero = sellados.get(0);
+        Message ultimo = sellados.get(sellados.size() - 1);
+        // Id determinista: reintentos del mismo sellado escriben el mismo bucket
+        DocumentReference bucketRef = bucketsRef(bd, chatId).document(primero.getMessageId());
+
+        bd.runTransaction(transaction -> {
+            DocumentSnapshot chat = transaction.get(chatRef);
+            if (!chat.exists()) {
+                throw new FirebaseFirestoreException("Chat sin resumen", FirebaseFirestoreException.Code.ABORTED);
+            }
+            Long compactedUntil = chat.getLong("compactedUntil");
+            String compactedUntilId = chat.getString("compactedUntilId");
+            // Ya sellado hasta este mensaje o mas alla
+            if (MessageBuckets.isCompacted(primero.getTimestamp(), primero.getMessageId(), compactedUntil, compactedUntilId)) {
+                return false;
+            }
+
+            transaction.set(bucketRef, MessageMapper.toMap(new MessageBucket(sellados)));
+            for (Message message : sellados) {
+                transaction.delete(mensajesRef(chatId).document(message.getMessageId()));
+            }
+            transaction.update(chatRef,
+                    "compactedUntil", ultimo.getTimestamp(),
+                    "compactedUntilId", ultimo.getMessageId());
+            return true;
+        }).addOnSuccessListener(sellado -> {
+            if (sellado) {
+                Log.d("COMPACT", "Sellados " + sellados.size() + " mensajes de " + chatId);
+            }
+        }).addOnFailureListener(e -> Log.e("COMPACT", "Error al sellar: " + e.getMessage()));
+    }
+
+    private CollectionReference mensajesRef(String chatId) {
+        return bd.collection("chats")
+                .document(chatId)
+                .collection("messages");
+    }
+}
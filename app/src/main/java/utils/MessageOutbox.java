@@ -0,0 +1,517 @@
+package utils;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import models.Message;
+import models.MessageMapper;
+
+// Bandeja de salida persistente: los mensajes se guardan en disco y se suben a Firestore por lotes
+public class MessageOutbox {
+
+    // Cada mensaje son hasta tres escrituras (mensaje, shard de no leidos y como mucho un resumen) y un WriteBatch o una transaccion admiten 500
+    private static final int BATCH_SIZE = 100;
+    private static final long BASE_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 60_000;
+
+    private static MessageOutbox instance;
+
+    private final MessageStore store;
+    private final FirebaseFirestore bd;
+    private final FirebaseAuth mAuth;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Random random = new Random();
+    private final LatencyTracker latencias = LatencyTracker.getInstance();
+
+    // Solo se tocan desde el hilo principal
+    private final Set<String> pendingIds = new HashSet<>();
+    private final Set<String> uploadingIds = new HashSet<>();
+    // Entradas de un lote que Firestore ha rechazado sin remedio: se envian de una en una hasta dar con la culpable
+    private final Set<String> sospechosos = new HashSet<>();
+    // Entradas que ya estaban en disco al arrancar: puede que Firestore las tenga (ver enviarLoteVerificado)
+    private final Set<String> recuperados = new HashSet<>();
+    private final List<OutboxListener> listeners = new ArrayList<>();
+    private boolean flushing = false;
+    private int attempts = 0;
+    private int uploadAttempts = 0;
+    // Sube al cerrar sesion: las respuestas que sigan en vuelo son de la cuenta anterior y se ignoran
+    private int generacion = 0;
+
+    private final ImageUploader uploader;
+    private final Runnable retryRunnable = this::flush;
+    private final Runnable retryUploadsRunnable = this::reanudarSubidas;
+
+    public interface OutboxListener {
+        void onOutboxChanged(String chatId);
+    }
+
+    public static class Entry {
+        public final String chatId;
+        public final Message message;
+        public final String receiverName;
+        public final String receiverPhotoUrl;
+        // Solo en imagenes: fichero comprimido pendiente de subir
+        public final String localPath;
+
+        public Entry(String chatId, Message message, String receiverName, String receiverPhotoUrl) {
+            this(chatId, message, receiverName, receiverPhotoUrl, null);
+        }
+
+        public Entry(String chatId, Message message, String receiverName, String receiverPhotoUrl, String localPath) {
+            this.chatId = chatId;
+            this.message = message;
+            this.receiverName = receiverName;
+            this.receiverPhotoUrl = receiverPhotoUrl;
+            this.localPath = localPath;
+        }
+    }
+
+    public static synchronized MessageOutbox getInstance(Context context) {
+        if (instance == null) {
+            instance = new MessageOutbox(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private MessageOutbox(Context context) {
+        store = MessageStore.getInstance(context);
+        bd = FirebaseFirestore.getInstance();
+        mAuth = FirebaseAuth.getInstance();
+        uploader = new ImageUploader(context);
+
+        // Lo que quedo pendiente de una ejecucion anterior se vuelve a intentar
+        MessageStore.DISK_EXECUTOR.execute(() -> {
+            List<String> ids = store.getOutboxIds();
+            mainHandler.post(() -> {
+                pendingIds.addAll(ids);
+                recuperados.addAll(ids);
+                flush();
+                reanudarSubidas();
+            });
+        });
+
+        // Al recuperar la red se reintenta sin esperar al backoff
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager != null) {
+            connectivityManager.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(@NonNull Network network) {
+                    mainHandler.post(() -> {
+                        attempts = 0;
+                        uploadAttempts = 0;
+                        flush();
+                        reanudarSubidas();
+                    });
+                }
+            });
+        }
+    }
+
+    public void addListener(OutboxListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(OutboxListener listener) {
+        listeners.remove(listener);
+    }
+
+    public Set<String> getPendingIds() {
+        return Collections.unmodifiableSet(pendingIds);
+    }
+
+    // Se llama desde el hilo principal; el mensaje ya se ha pintado como pendiente
+    public void enqueue(String chatId, Message message, String receiverName, String receiverPhotoUrl) {
+        pendingIds.add(message.getMessageId());
+        notificar(chatId);
+
+        Entry entry = new Entry(chatId, message, receiverName, receiverPhotoUrl);
+        MessageStore.DISK_EXECUTOR.execute(() -> {
+            store.saveOutboxEntry(entry);
+            mainHandler.post(this::flush);
+        });
+    }
+
+    // Imagen ya procesada: se guarda en la bandeja y no se envia el mensaje hasta tener la URL de descarga
+    public void enqueueImage(String chatId, Message message, String receiverName, String receiverPhotoUrl, File file) {
+        pendingIds.add(message.getMessageId());
+        notificar(chatId);
+
+        Entry entry = new Entry(chatId, message, receiverName, receiverPhotoUrl, file.getAbsolutePath());
+        MessageStore.DISK_EXECUTOR.execute(() -> {
+            store.saveOutboxEntry(entry);
+            mainHandler.post(() -> subir(entry));
+        });
+    }
+
+    // Al cerrar sesion lo pendiente se descarta, no debe salir a nombre de la siguiente cuenta
+    public void clear() {
+        generacion++;
+        mainHandler.removeCallbacks(retryRunnable);
+        mainHandler.removeCallbacks(retryUploadsRunnable);
+        pendingIds.clear();
+        recuperados.clear();
+        sospechosos.clear();
+        uploadingIds.clear();
+        flushing = false;
+        attempts = 0;
+        uploadAttempts = 0;
+
+        MessageStore.DISK_EXECUTOR.execute(() -> {
+            for (Entry entry : store.getPendingUploads()) {
+                if (entry.localPath != null && !new File(entry.localPath).delete()) {
+                    Log.w("OUTBOX", "No se pudo borrar " + entry.localPath);
+                }
+            }
+            store.clearOutbox();
+        });
+    }
+
+    private void reanudarSubidas() {
+        mainHandler.removeCallbacks(retryUploadsRunnable);
+        int gen = generacion;
+        MessageStore.DISK_EXECUTOR.execute(() -> {
+            List<Entry> entries = store.getPendingUploads();
+            mainHandler.post(() -> {
+                if (gen != generacion) {
+                    return;
+                }
+                for (Entry entry : entries) {
+                    subir(entry);
+                }
+            });
+        });
+    }
+
+    private void subir(Entry entry) {
+        String messageId = entry.message.getMessageId();
+        if (!uploadingIds.add(messageId)) {
+            return;
+        }
+
+        File file = entry.localPath != null ? new File(entry.localPath) : null;
+        if (file == null || !file.exists()) {
+            // Sin el fichero no hay nada que subir: se descarta para no bloquear la bandeja
+            Log.e("OUTBOX", "Imagen pendiente sin fichero: " + messageId);
+            uploadingIds.remove(messageId);
+            descartar(entry);
+            return;
+        }
+
+        int gen = generacion;
+        uploader.upload(entry.chatId, messageId, file, new ImageUploader.OnUploadListener() {
+            @Override
+            public void onUploadComplete(String downloadUrl) {
+                if (gen != generacion) {
+                    return;
+                }
+                uploadingIds.remove(messageId);
+                uploadAttempts = 0;
+                entry.message.setImageUrl(downloadUrl);
+                MessageStore.DISK_EXECUTOR.execute(() -> {
+                    store.setOutboxImageUrl(messageId, downloadUrl);
+                    if (!file.delete()) {
+                        Log.w("OUTBOX", "No se pudo borrar " + file);
+                    }
+                    mainHandler.post(() -> flush());
+                });
+            }
+
+            @Override
+            public void onUploadError(Exception e) {
+                if (gen != generacion) {
+                    return;
+                }
+                uploadingIds.remove(messageId);
+                long delay = calcularBackoff(uploadAttempts);
+                uploadAttempts++;
+                mainHandler.removeCallbacks(retryUploadsRunnable);
+                mainHandler.postDelayed(retryUploadsRunnable, delay);
+            }
+        });
+    }
+
+    private void descartar(Entry entry) {
+        String messageId = entry.message.getMessageId();
+        MessageStore.DISK_EXECUTOR.execute(() -> {
+            store.deleteOutboxEntries(Collections.singletonList(messageId));
+            mainHandler.post(() -> {
+                pendingIds.remove(messageId);
+                notificar(entry.chatId);
+            });
+        });
+    }
+
+    public void flush() {
+        if (flushing) {
+            return;
+        }
+        flushing = true;
+        mainHandler.removeCallbacks(retryRunnable);
+
+        int gen = generacion;
+        MessageStore.DISK_EXECUTOR.execute(() -> {
+            List<Entry> entries = store.getOutboxEntries(BATCH_SIZE);
+            mainHandler.post(() -> {
+                if (gen == generacion) {
+                    enviarLote(entries);
+                }
+            });
+        });
+    }
+
+    private void enviarLote(List<Entry> entries) {
+        if (entries.isEmpty()) {
+            flushing = false;
+            attempts = 0;
+            return;
+        }
+        if (sospechosos.contains(entries.get(0).message.getMessageId())) {
+            entries = entries.subList(0, 1);
+        }
+        for (Entry entry : entries) {
+            if (recuperados.contains(entry.message.getMessageId())) {
+                enviarLoteVerificado(entries);
+                return;
+            }
+        }
+
+        WriteBatch batch = bd.batch();
+        for (Entry entry : entries) {
+            batch.set(mensajeRef(entry), datosMensaje(entry));
+            // En un grupo no hay contador por miembro: cada uno calcula sus no leidos al leer
+            if (!ChatIds.isGroup(entry.chatId)) {
+                UnreadCounter.increment(bd, batch, entry.chatId, entry.message.getReceiverId());
+            }
+        }
+        for (Entry ultimo : ultimosPorChat(entries)) {
+            batch.set(bd.collection("chats").document(ultimo.chatId), crearResumen(ultimo), SetOptions.merge());
+        }
+
+        int gen = generacion;
+        List<Entry> lote = entries;
+        batch.commit()
+                .addOnSuccessListener(aVoid -> alEnviar(gen, lote))
+                .addOnFailureListener(e -> alFallar(gen, lote, e));
+    }
+
+    // El lote lleva entradas que ya estaban en disco al arrancar: puede que el proceso muriera despues de
+    // que Firestore las aceptara y antes de confirmarlas. Se envia en una transaccion que lee cada mensaje
+    // primero y solo escribe (y suma al contador de no leidos) los que todavia no existen
+    private void enviarLoteVerificado(List<Entry> entries) {
+        int gen = generacion;
+        bd.runTransaction(transaction -> {
+                    Set<String> existentes = new HashSet<>();
+                    for (Entry entry : entries) {
+                        if (recuperados.contains(entry.message.getMessageId())
+                                && transaction.get(mensajeRef(entry)).exists()) {
+                            existentes.add(entry.message.getMessageId());
+                        }
+                    }
+                    // Lo que ya existe no se reescribe: perderia su serverTime y la marca de leido del destinatario
+                    for (Entry entry : entries) {
+                        if (existentes.contains(entry.message.getMessageId())) {
+                            continue;
+                        }
+                        transaction.set(mensajeRef(entry), datosMensaje(entry));
+                        if (!ChatIds.isGroup(entry.chatId)) {
+                            UnreadCounter.increment(bd, transaction, entry.chatId, entry.message.getReceiverId());
+                        }
+                    }
+                    for (Entry ultimo : ultimosPorChat(entries)) {
+                        transaction.set(bd.collection("chats").document(ultimo.chatId), crearResumen(ultimo), SetOptions.merge());
+                    }
+                    return null;
+                })
+                .addOnSuccessListener(result -> alEnviar(gen, entries))
+                .addOnFailureListener(e -> alFallar(gen, entries, e));
+    }
+
+    private DocumentReference mensajeRef(Entry entry) {
+        return bd.collection("chats")
+                .document(entry.chatId)
+                .collection("messages")
+                .document(entry.message.getMessageId());
+    }
+
+    // El serverTime es el cursor con el que los receptores piden lo nuevo (ChatRepository.ponerseAlDia)
+    private static Map<String, Object> datosMensaje(Entry entry) {
+        Map<String, Object> datos = MessageMapper.toMap(entry.message);
+        datos.put(MessageMapper.SERVER_TIME, FieldValue.serverTimestamp());
+        return datos;
+    }
+
+    // El resumen solo necesita el ultimo mensaje de cada chat: una escritura por chat y lote
+    private static Collection<Entry> ultimosPorChat(List<Entry> entries) {
+        Map<String, Entry> ultimos = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            Entry ultimo = ultimos.get(entry.chatId);
+            if (ultimo == null || entry.message.getTimestamp() >= ultimo.message.getTimestamp()) {
+                ultimos.put(entry.chatId, entry);
+            }
+        }
+        return ultimos.values();
+    }
+
+    private void alEnviar(int gen, List<Entry> entries) {
+        if (gen != generacion) {
+            return;
+        }
+        Log.d("OUTBOX", "Lote enviado: " + entries.size() + " mensajes");
+        for (Entry entry : entries) {
+            latencias.stop(LatencyTracker.Metric.SEND_TO_ACK, entry.message.getMessageId());
+        }
+        attempts = 0;
+        for (Entry entry : entries) {
+            sospechosos.remove(entry.message.getMessageId());
+        }
+        confirmar(entries);
+    }
+
+    private void alFallar(int gen, List<Entry> entries, Exception e) {
+        if (gen != generacion) {
+            return;
+        }
+        Log.e("OUTBOX", "Error al enviar lote: " + e.getMessage());
+        flushing = false;
+        if (!esDefinitivo(e)) {
+            programarReintento();
+            return;
+        }
+        // Reintentar no va a cambiar la respuesta y, al salir las mas antiguas primero, bloquearia la bandeja.
+        // Un lote se rechaza entero: si hay varias se aislan y solo se descarta la que falle sola
+        if (entries.size() > 1) {
+            for (Entry entry : entries) {
+                sospechosos.add(entry.message.getMessageId());
+            }
+        } else {
+            Entry entry = entries.get(0);
+            Log.e("OUTBOX", "Mensaje rechazado por Firestore, se descarta: " + entry.message.getMessageId());
+            sospechosos.remove(entry.message.getMessageId());
+            recuperados.remove(entry.message.getMessageId());
+            descartar(entry);
+        }
+        flush();
+    }
+
+    private static boolean esDefinitivo(Exception e) {
+        if (!(e instanceof FirebaseFirestoreException)) {
+            return false;
+        }
+        FirebaseFirestoreException.Code code = ((FirebaseFirestoreException) e).getCode();
+        return code == FirebaseFirestoreException.Code.PERMISSION_DENIED
+                || code == FirebaseFirestoreException.Code.INVALID_ARGUMENT;
+    }
+
+    // Firestore ha confirmado el lote: sale de la bandeja y pasa a la cache de mensajes
+    private void confirmar(List<Entry> entries) {
+        List<String> ids = new ArrayList<>();
+        Map<String, List<Message>> porChat = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            ids.add(entry.message.getMessageId());
+            List<Message> messages = porChat.get(entry.chatId);
+            if (messages == null) {
+                messages = new ArrayList<>();
+                porChat.put(entry.chatId, messages);
+            }
+            messages.add(entry.message);
+        }
+
+        int gen = generacion;
+        MessageStore.DISK_EXECUTOR.execute(() -> {
+            store.deleteOutboxEntries(ids);
+            for (Map.Entry<String, List<Message>> chat : porChat.entrySet()) {
+                store.saveMessages(chat.getKey(), chat.getValue());
+            }
+            mainHandler.post(() -> {
+                if (gen != generacion) {
+                    return;
+                }
+                pendingIds.removeAll(ids);
+                recuperados.removeAll(ids);
+                for (String chatId : porChat.keySet()) {
+                    notificar(chatId);
+                }
+                flushing = false;
+                // Puede que haya mas de un lote en la bandeja
+                flush();
+            });
+        });
+    }
+
+    private void programarReintento() {
+        long delay = calcularBackoff(attempts);
+        attempts++;
+        mainHandler.removeCallbacks(retryRunnable);
+        mainHandler.postDelayed(retryRunnable, delay);
+    }
+
+    // Backoff exponencial con jitter para no reintentar todos a la vez
+    private long calcularBackoff(int intentos) {
+        long delay = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(intentos, 16));
+        return delay / 2 + (long) (random.nextDouble() * delay / 2);
+    }
+
+    private void notificar(String chatId) {
+        for (OutboxListener listener : new ArrayList<>(listeners)) {
+            listener.onOutboxChanged(chatId);
+        }
+    }
+
+    // Resumen en chats/{chatId} para que la pantalla principal liste los chats con una sola consulta
+    private Map<String, Object> crearResumen(Entry entry) {
+        Message message = entry.message;
+        Map<String, Object> resumen = new HashMap<>();
+        resumen.put("lastMessage", Message.TYPE_IMAGE.equals(message.getType()) ? "📷 Foto" : message.getMessage());
+        resumen.put("lastSenderId", message.getSenderId());
+        resumen.put("lastTimestamp", message.getTimestamp());
+        // Los miembros de un grupo se fijan al crearlo; el mensaje no los toca
+        if (ChatIds.isGroup(entry.chatId)) {
+            return resumen;
+        }
+
+        FirebaseUser currentUser = mAuth.getCurrentUser();
+
+        Map<String, Object> names = new HashMap<>();
+        names.put(message.getReceiverId(), entry.receiverName);
+        Map<String, Object> photos = new HashMap<>();
+        photos.put(message.getReceiverId(), entry.receiverPhotoUrl != null ? entry.receiverPhotoUrl : "");
+        if (currentUser != null && currentUser.getUid().equals(message.getSenderId())) {
+            names.put(message.getSenderId(), currentUser.getDisplayName() != null ? currentUser.getDisplayName() : "Usuario");
+            photos.put(message.getSenderId(), currentUser.getPhotoUrl() != null ? currentUser.getPhotoUrl().toString() : "");
+        }
+
+        resumen.put("participants", Arrays.asList(message.getSenderId(), message.getReceiverId()));
+        resumen.put("participantNames", names);
+        resumen.put("participantPhotos", photos);
+        return resumen;
+    }
+}
@@ -0,0 +1,476 @@
+package utils;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import models.Message;
+
+public class MessageStore extends SQLiteOpenHelper {
+
+    private static final String DB_NAME = "chat_cache.db";
+    private static final int DB_VERSION = 5;
+
+    private static final String TABLE_MESSAGES = "messages";
+    private static final String TABLE_OUTBOX = "outbox";
+    private static final String TABLE_SEARCH = "search_index";
+    private static final String TABLE_SYNC = "sync_state";
+    // Limite de resultados de una busqueda
+    private static final int SEARCH_LIMIT = 100;
+    private static final String COLUMNS =
+            "message_id, chat_id, sender_id, receiver_id, message, timestamp, read, "
+                    + "type, image_url, thumbnail, image_width, image_height";
+    private static final String OUTBOX_COLUMNS =
+            "message_id, chat_id, sender_id, receiver_id, message, timestamp, receiver_name, receiver_photo, "
+                    + "type, image_url, thumbnail, image_width, image_height, local_path";
+
+    // Todas las lecturas y escrituras de disco pasan por este hilo, nunca por el hilo principal
+    public static final ExecutorService DISK_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private static MessageStore instance;
+
+    public static class SearchHit {
+        public final String chatId;
+        public final Message message;
+
+        public SearchHit(String chatId, Message message) {
+            this.chatId = chatId;
+            this.message = message;
+        }
+    }
+
+    public static synchronized MessageStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new MessageStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private MessageStore(Context context) {
+        super(context, DB_NAME, null, DB_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        crearTablaMensajes(db);
+        crearTablaOutbox(db);
+        crearTablaBusqueda(db);
+        crearTablaSincronizacion(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Los mensajes son solo cache: si cambia su esquema se vuelven a descargar
+        if (oldVersion < 3) {
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_MESSAGES);
+            crearTablaMensajes(db);
+        }
+
+        // La bandeja de salida guarda mensajes que aun no estan en Firestore, nunca se borra
+        if (oldVersion < 2) {
+            crearTablaOutbox(db);
+        } else if (oldVersion < 3) {
+            db.execSQL("ALTER TABLE " + TABLE_OUTBOX + " ADD COLUMN type TEXT");
+            db.execSQL("ALTER TABLE " + TABLE_OUTBOX + " ADD COLUMN image_url TEXT");
+            db.execSQL("ALTER TABLE " + TABLE_OUTBOX + " ADD COLUMN thumbnail TEXT");
+            db.execSQL("ALTER TABLE " + TABLE_OUTBOX + " ADD COLUMN image_width INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE " + TABLE_OUTBOX + " ADD COLUMN image_height INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE " + TABLE_OUTBOX + " ADD COLUMN local_path TEXT");
+        }
+
+        // El indice se construye con lo que ya hay en cache, sin volver a descargar nada
+        if (oldVersion < 4) {
+            crearTablaBusqueda(db);
+            indexarTodo(db);
+        }
+
+        // Sin marca el chat descarga su ultima pagina al abrirse, como si no hubiera cache
+        if (oldVersion < 5) {
+            crearTablaSincronizacion(db);
+        }
+    }
+
+    private void crearTablaMensajes(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_MESSAGES + " ("
+                + "message_id TEXT PRIMARY KEY, "
+                + "chat_id TEXT NOT NULL, "
+                + "sender_id TEXT, "
+                + "receiver_id TEXT, "
+                + "message TEXT, "
+                + "timestamp INTEGER NOT NULL, "
+                + "read INTEGER NOT NULL DEFAULT 0, "
+                + "type TEXT, "
+                + "image_url TEXT, "
+                + "thumbnail TEXT, "
+                + "image_width INTEGER NOT NULL DEFAULT 0, "
+                + "image_height INTEGER NOT NULL DEFAULT 0)");
+
+        // Indice para leer una conversacion ordenada sin recorrer toda la tabla
+        db.execSQL("CREATE INDEX idx_messages_chat_timestamp ON " + TABLE_MESSAGES
+                + " (chat_id, timestamp, message_id)");
+    }
+
+    private void crearTablaOutbox(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_OUTBOX + " ("
+                + "message_id TEXT PRIMARY KEY, "
+                + "chat_id TEXT NOT NULL, "
+                + "sender_id TEXT, "
+                + "receiver_id TEXT, "
+                + "message TEXT, "
+                + "timestamp INTEGER NOT NULL, "
+                + "receiver_name TEXT, "
+                + "receiver_photo TEXT, "
+                + "type TEXT, "
+                + "image_url TEXT, "
+                + "thumbnail TEXT, "
+                + "image_width INTEGER NOT NULL DEFAULT 0, "
+                + "image_height INTEGER NOT NULL DEFAULT 0, "
+                // Fichero ya comprimido a la espera de subirse a Storage
+                + "local_path TEXT)");
+    }
+
+    // Hasta donde se ha leido cada chat de Firestore, en milisegundos de serverTime. No sale de la tabla de
+    // mensajes porque en ella tambien entran los envios confirmados por la bandeja de salida, que no dicen
+    // nada de lo recibido
+    private void crearTablaSincronizacion(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_SYNC + " ("
+                + "chat_id TEXT PRIMARY KEY, "
+                + "synced_until INTEGER NOT NULL)");
+    }
+
+    // Indice invertido: una fila por (termino, mensaje). Sin rowid, la clave primaria es el propio orden
+    // del indice y una busqueda por prefijo es un recorrido de rango
+    private void crearTablaBusqueda(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_SEARCH + " ("
+                + "term TEXT NOT NULL, "
+                + "message_id TEXT NOT NULL, "
+                + "PRIMARY KEY (term, message_id)) WITHOUT ROWID");
+
+        // Para quitar las entradas de un mensaje borrado sin recorrer todo el indice
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_search_message ON " + TABLE_SEARCH + " (message_id)");
+    }
+
+    private void indexarTodo(SQLiteDatabase db) {
+        SQLiteStatement insert = compilarInsercionIndice(db);
+        try (Cursor cursor = db.rawQuery("SELECT message_id, message FROM " + TABLE_MESSAGES, null)) {
+            while (cursor.moveToNext()) {
+                indexar(insert, cursor.getString(0), cursor.getString(1));
+            }
+        } finally {
+            insert.close();
+        }
+    }
+
+    private SQLiteStatement compilarInsercionIndice(SQLiteDatabase db) {
+        return db.compileStatement("INSERT OR IGNORE INTO " + TABLE_SEARCH + " (term, message_id) VALUES (?, ?)");
+    }
+
+    // El texto de un mensaje no cambia, asi que volver a guardarlo no duplica nada
+    private void indexar(SQLiteStatement insert, String messageId, String text) {
+        for (String term : SearchTokenizer.tokenize(text)) {
+            insert.bindString(1, term);
+            insert.bindString(2, messageId);
+            insert.executeInsert();
+            insert.clearBindings();
+        }
+    }
+
+    // Ultimos mensajes de la conversacion, en orden ascendente
+    public List<Message> getLatestMessages(String chatId, int limit) {
+        Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT " + COLUMNS + " FROM " + TABLE_MESSAGES
+                        + " WHERE chat_id = ?"
+                        + " ORDER BY timestamp DESC, message_id DESC LIMIT " + limit,
+                new String[]{chatId});
+        return leerDescendente(cursor);
+    }
+
+    // Pagina de mensajes anteriores al cursor (timestamp, messageId), en orden ascendente
+    public List<Message> getMessagesBefore(String chatId, long timestamp, String messageId, int limit) {
+        String ts = String.valueOf(timestamp);
+        Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT " + COLUMNS + " FROM " + TABLE_MESSAGES
+                        + " WHERE chat_id = ? AND (timestamp < ? OR (timestamp = ? AND message_id < ?))"
+                        + " ORDER BY timestamp DESC, message_id DESC LIMIT " + limit,
+                new String[]{chatId, ts, ts, messageId});
+        return leerDescendente(cursor);
+    }
+
+    // Pagina desde el mensaje indicado (incluido) hacia los mas nuevos, en orden ascendente; para saltar a un
+    // resultado de busqueda y seguir bajando desde el
+    public List<Message> getMessagesFrom(String chatId, long timestamp, String messageId, int limit) {
+        String ts = String.valueOf(timestamp);
+        Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT " + COLUMNS + " FROM " + TABLE_MESSAGES
+                        + " WHERE chat_id = ? AND (timestamp > ? OR (timestamp = ? AND message_id >= ?))"
+                        + " ORDER BY timestamp ASC, message_id ASC LIMIT " + limit,
+                new String[]{chatId, ts, ts, messageId});
+        return leerAscendente(cursor);
+    }
+
+    // Busqueda en todas las conversaciones: cada termino de la consulta se busca como prefijo y un mensaje
+    // tiene que contenerlos todos. Resultados del mas reciente al mas antiguo
+    public List<SearchHit> search(String query) {
+        Set<String> terms = SearchTokenizer.tokenize(query);
+        List<SearchHit> hits = new ArrayList<>();
+        if (terms.isEmpty()) {
+            return hits;
+        }
+
+        StringBuilder subconsulta = new StringBuilder();
+        String[] args = new String[terms.size() * 2];
+        int i = 0;
+        for (String term : terms) {
+            if (i > 0) {
+                subconsulta.append(" INTERSECT ");
+            }
+            subconsulta.append("SELECT message_id FROM " + TABLE_SEARCH + " WHERE term >= ? AND term < ?");
+            args[i++] = term;
+            args[i++] = term + Character.MAX_VALUE;
+        }
+
+        try (Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT " + COLUMNS + " FROM " + TABLE_MESSAGES
+                        + " WHERE message_id IN (" + subconsulta + ")"
+                        + " ORDER BY timestamp DESC LIMIT " + SEARCH_LIMIT,
+                args)) {
+            while (cursor.moveToNext()) {
+                hits.add(new SearchHit(cursor.getString(1), leerMensaje(cursor)));
+            }
+        }
+        return hits;
+    }
+
+    // Marca de sincronizacion del chat, o -1 si nunca se ha escuchado
+    public long getSyncedUntil(String chatId) {
+        try (Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT synced_until FROM " + TABLE_SYNC + " WHERE chat_id = ?",
+                new String[]{chatId})) {
+            if (cursor.moveToFirst()) {
+                return cursor.getLong(0);
+            }
+            return -1;
+        }
+    }
+
+    // Solo avanza: un snapshot atrasado no puede devolver la marca hacia atras
+    public void setSyncedUntil(String chatId, long syncedUntil) {
+        getWritableDatabase().execSQL("INSERT OR REPLACE INTO " + TABLE_SYNC + " (chat_id, synced_until) "
+                        + "VALUES (?, MAX(?, IFNULL((SELECT synced_until FROM " + TABLE_SYNC + " WHERE chat_id = ?), -1)))",
+                new Object[]{chatId, syncedUntil, chatId});
+    }
+
+    public void saveMessages(String chatId, List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        SQLiteStatement insert = compilarInsercionIndice(db);
+        try {
+            ContentValues values = new ContentValues();
+            for (Message message : messages) {
+                values.clear();
+                values.put("message_id", message.getMessageId());
+                values.put("chat_id", chatId);
+                values.put("sender_id", message.getSenderId());
+                values.put("receiver_id", message.getReceiverId());
+                values.put("message", message.getMessage());
+                values.put("timestamp", message.getTimestamp());
+                values.put("read", message.isRead() ? 1 : 0);
+                ponerImagen(values, message);
+                db.insertWithOnConflict(TABLE_MESSAGES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                indexar(insert, message.getMessageId(), message.getMessage());
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            insert.close();
+            db.endTransaction();
+        }
+    }
+
+    public void deleteMessages(List<String> messageIds) {
+        if (messageIds.isEmpty()) {
+            return;
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (String messageId : messageIds) {
+                db.delete(TABLE_MESSAGES, "message_id = ?", new String[]{messageId});
+                db.delete(TABLE_SEARCH, "message_id = ?", new String[]{messageId});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Al cerrar sesion: la cache, el indice de busqueda y las marcas de sincronizacion son de la cuenta anterior
+    public void clearMessages() {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_MESSAGES, null, null);
+            db.delete(TABLE_SEARCH, null, null);
+            db.delete(TABLE_SYNC, null, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Bandeja de salida: mensajes enviados por el usuario que aun no ha confirmado Firestore
+
+    public void saveOutboxEntry(MessageOutbox.Entry entry) {
+        ContentValues values = new ContentValues();
+        values.put("message_id", entry.message.getMessageId());
+        values.put("chat_id", entry.chatId);
+        values.put("sender_id", entry.message.getSenderId());
+        values.put("receiver_id", entry.message.getReceiverId());
+        values.put("message", entry.message.getMessage());
+        values.put("timestamp", entry.message.getTimestamp());
+        values.put("receiver_name", entry.receiverName);
+        values.put("receiver_photo", entry.receiverPhotoUrl);
+        ponerImagen(values, entry.message);
+        values.put("local_path", entry.localPath);
+        getWritableDatabase().insertWithOnConflict(TABLE_OUTBOX, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    // Entradas listas para enviar, las mas antiguas primero; las imagenes esperan a tener URL
+    public List<MessageOutbox.Entry> getOutboxEntries(int limit) {
+        return leerOutbox("SELECT " + OUTBOX_COLUMNS + " FROM " + TABLE_OUTBOX
+                + " WHERE type IS NULL OR type != '" + Message.TYPE_IMAGE + "' OR image_url IS NOT NULL"
+                + " ORDER BY timestamp ASC LIMIT " + limit, null);
+    }
+
+    // Imagenes cuya subida no ha terminado, para reanudarlas al arrancar
+    public List<MessageOutbox.Entry> getPendingUploads() {
+        return leerOutbox("SELECT " + OUTBOX_COLUMNS + " FROM " + TABLE_OUTBOX
+                + " WHERE type = '" + Message.TYPE_IMAGE + "' AND image_url IS NULL"
+                + " ORDER BY timestamp ASC", null);
+    }
+
+    public void setOutboxImageUrl(String messageId, String imageUrl) {
+        ContentValues values = new ContentValues();
+        values.put("image_url", imageUrl);
+        getWritableDatabase().update(TABLE_OUTBOX, values, "message_id = ?", new String[]{messageId});
+    }
+
+    public List<Message> getOutboxMessages(String chatId) {
+        List<Message> messages = new ArrayList<>();
+        for (MessageOutbox.Entry entry : leerOutbox("SELECT " + OUTBOX_COLUMNS + " FROM " + TABLE_OUTBOX
+                + " WHERE chat_id = ? ORDER BY timestamp ASC", new String[]{chatId})) {
+            messages.add(entry.message);
+        }
+        return messages;
+    }
+
+    public List<String> getOutboxIds() {
+        List<String> ids = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT message_id FROM " + TABLE_OUTBOX, null)) {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getString(0));
+            }
+        }
+        return ids;
+    }
+
+    public void deleteOutboxEntries(List<String> messageIds) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (String messageId : messageIds) {
+                db.delete(TABLE_OUTBOX, "message_id = ?", new String[]{messageId});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public void clearOutbox() {
+        getWritableDatabase().delete(TABLE_OUTBOX, null, null);
+    }
+
+    private List<MessageOutbox.Entry> leerOutbox(String sql, String[] args) {
+        List<MessageOutbox.Entry> entries = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().rawQuery(sql, args)) {
+            while (cursor.moveToNext()) {
+                Message message = new Message(
+                        cursor.getString(0),
+                        cursor.getString(2),
+                        cursor.getString(3),
+                        cursor.getString(4),
+                        cursor.getLong(5)
+                );
+                leerImagen(cursor, 8, message);
+                entries.add(new MessageOutbox.Entry(cursor.getString(1), message,
+                        cursor.getString(6), cursor.getString(7), cursor.getString(13)));
+            }
+        }
+        return entries;
+    }
+
+    private List<Message> leerDescendente(Cursor cursor) {
+        List<Message> messages = leerAscendente(cursor);
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    private List<Message> leerAscendente(Cursor cursor) {
+        List<Message> messages = new ArrayList<>(cursor.getCount());
+        try {
+            while (cursor.moveToNext()) {
+                messages.add(leerMensaje(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        return messages;
+    }
+
+    // Fila con las columnas de COLUMNS
+    private Message leerMensaje(Cursor cursor) {
+        Message message = new Message(
+                cursor.getString(0),
+                cursor.getString(2),
+                cursor.getString(3),
+                cursor.getString(4),
+                cursor.getLong(5)
+        );
+        message.setRead(cursor.getInt(6) == 1);
+        leerImagen(cursor, 7, message);
+        return message;
+    }
+
+    private void ponerImagen(ContentValues values, Message message) {
+        values.put("type", message.getType());
+        values.put("image_url", message.getImageUrl());
+        values.put("thumbnail", message.getThumbnail());
+        values.put("image_width", message.getImageWidth());
+        values.put("image_height", message.getImageHeight());
+    }
+
+    // Columnas de imagen a partir de la posicion indicada: type, image_url, thumbnail, ancho, alto
+    private void leerImagen(Cursor cursor, int first, Message message) {
+        if (!cursor.isNull(first)) {
+            message.setType(cursor.getString(first));
+        }
+        message.setImageUrl(cursor.getString(first + 1));
+        message.setThumbnail(cursor.getString(first + 2));
+        message.setImageWidth(cursor.getInt(first + 3));
+        message.setImageHeight(cursor.getInt(first + 4));
+    }
+}
@@ -0,0 +1,80 @@
+package utils;
+
+import android.util.LruCache;
+import android.widget.TextView;
+
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import models.Message;
+
+// Medidas de texto de las burbujas calculadas en segundo plano, para no medir en el hilo principal durante el scroll
+public class MessageTextLayoutCache {
+
+    private static final int MAX_ENTRIES = 300;
+
+    private static final ExecutorService TEXT_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    // LruCache es thread-safe: el hilo de fondo escribe y el bind lee
+    private final LruCache<String, PrecomputedTextCompat> cache = new LruCache<>(MAX_ENTRIES);
+
+    // Se aplica el texto medido si existe; si no, texto normal y se calcula para el proximo bind
+    public void apply(TextView textView, Message message) {
+        String text = message.getMessage() != null ? message.getMessage() : "";
+        PrecomputedTextCompat.Params params = TextViewCompat.getTextMetricsParams(textView);
+
+        PrecomputedTextCompat precomputed = cache.get(clave(message.getMessageId(), params));
+        if (precomputed != null && precomputed.getParams().equals(params)) {
+            TextViewCompat.setPrecomputedText(textView, precomputed);
+            return;
+        }
+
+        textView.setText(text);
+        List<Message> pendiente = new ArrayList<>(1);
+        pendiente.add(message);
+        precompute(pendiente, params);
+    }
+
+    // Calcula por adelantado los mensajes que aun no estan en cache, por ejemplo una pagina recien cargada
+    public void precompute(List<Message> messages, PrecomputedTextCompat.Params params) {
+        List<Message> pendientes = new ArrayList<>();
+        for (Message message : messages) {
+            if (message.getMessageId() != null && message.getMessage() != null
+                    && !message.getMessage().isEmpty()
+                    && cache.get(clave(message.getMessageId(), params)) == null) {
+                pendientes.add(message);
+            }
+        }
+        if (pendientes.isEmpty()) {
+            return;
+        }
+        // Mas de lo que cabe en la cache solo serviria para expulsar lo recien calculado
+        if (pendientes.size() > MAX_ENTRIES) {
+            pendientes = pendientes.subList(pendientes.size() - MAX_ENTRIES, pendientes.size());
+        }
+
+        List<Message> lote = pendientes;
+        TEXT_EXECUTOR.execute(() -> {
+            for (Message message : lote) {
+                String clave = clave(message.getMessageId(), params);
+                if (cache.get(clave) == null) {
+                    cache.put(clave, PrecomputedTextCompat.create(message.getMessage(), params));
+                }
+            }
+        });
+    }
+
+    public void clear() {
+        cache.evictAll();
+    }
+
+    // La misma burbuja con otro tamaño o fuente de texto necesita otras medidas
+    private static String clave(String messageId, PrecomputedTextCompat.Params params) {
+        return messageId + "#" + params.hashCode();
+    }
+}
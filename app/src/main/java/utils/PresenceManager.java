@@ -0,0 +1,98 @@
+package utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.DefaultLifecycleObserver;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.ProcessLifecycleOwner;
+
+import com.google.firebase.firestore.FirebaseFirestore;
+
+// Latido de presencia: actualiza users/{uid}.lastSeen mientras la app esta en primer plano
+public class PresenceManager implements DefaultLifecycleObserver {
+
+    // Como mucho una escritura por intervalo; se considera "en linea" durante dos intervalos
+    public static final long HEARTBEAT_INTERVAL_MS = 60_000;
+    private static final long ONLINE_WINDOW_MS = 2 * HEARTBEAT_INTERVAL_MS;
+
+    private static PresenceManager instance;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable heartbeatRunnable = this::latido;
+
+    private String userId;
+    private long lastWriteTime = 0;
+    private boolean observing = false;
+
+    public static synchronized PresenceManager getInstance() {
+        if (instance == null) {
+            instance = new PresenceManager();
+        }
+        return instance;
+    }
+
+    private PresenceManager() {
+    }
+
+    // Se llama tras iniciar sesion; el ciclo de vida del proceso decide cuando late
+    public void start(String userId) {
+        this.userId = userId;
+        if (!observing) {
+            observing = true;
+            // Si la app ya esta en primer plano se recibe onStart al momento
+            ProcessLifecycleOwner.get().getLifecycle().addObserver(this);
+        }
+    }
+
+    public void stop() {
+        handler.removeCallbacks(heartbeatRunnable);
+        if (observing) {
+            observing = false;
+            ProcessLifecycleOwner.get().getLifecycle().removeObserver(this);
+        }
+        userId = null;
+        lastWriteTime = 0;
+    }
+
+    @Override
+    public void onStart(@NonNull LifecycleOwner owner) {
+        // Si acabamos de escribir (vuelta rapida del segundo plano) se espera al siguiente intervalo
+        long desdeUltima = System.currentTimeMillis() - lastWriteTime;
+        handler.removeCallbacks(heartbeatRunnable);
+        handler.postDelayed(heartbeatRunnable, Math.max(0, HEARTBEAT_INTERVAL_MS - desdeUltima));
+    }
+
+    @Override
+    public void onStop(@NonNull LifecycleOwner owner) {
+        // Nunca se escribe desde segundo plano
+        handler.removeCallbacks(heartbeatRunnable);
+    }
+
+    private void latido() {
+        if (userId == null) {
+            return;
+        }
+        lastWriteTime = System.currentTimeMillis();
+        FirebaseFirestore.getInstance()
+                .collection("users")
+                .document(userId)
+                .update("lastSeen", lastWriteTime)
+                .addOnFailureListener(e -> Log.e("PRESENCE", "Error al actualizar lastSeen: " + e.getMessage()));
+
+        handler.postDelayed(heartbeatRunnable, HEARTBEAT_INTERVAL_MS);
+    }
+
+    public static boolean isOnline(long lastSeen) {
+        return System.currentTimeMillis() - lastSeen < ONLINE_WINDOW_MS;
+    }
+
+    public static String formatPresence(long lastSeen) {
+        if (isOnline(lastSeen)) {
+            return "en línea";
+        }
+        return "últ. vez " + TimestampFormatter.getInstance().formatMessageTime(lastSeen);
+    }
+}
@@ -0,0 +1,87 @@
+package utils;
+
+import android.util.Log;
+
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Presencia de las filas visibles con un unico listener agregado, en vez de uno por usuario
+public class PresenceTracker {
+
+    // Limite de valores de un whereIn en Firestore
+    private static final int MAX_WATCHED = 30;
+
+    private final FirebaseFirestore bd;
+    private final OnPresenceChangeListener listener;
+
+    private ListenerRegistration presenceListener;
+    private Set<String> watchedIds = new LinkedHashSet<>();
+    private final Map<String, Long> lastSeenByUid = new HashMap<>();
+
+    public interface OnPresenceChangeListener {
+        void onPresenceChanged(Map<String, Long> lastSeenByUid);
+    }
+
+    public PresenceTracker(FirebaseFirestore bd, OnPresenceChangeListener listener) {
+        this.bd = bd;
+        this.listener = listener;
+    }
+
+    // Se llama con las filas visibles al parar el scroll; solo se resuscribe si el conjunto cambia
+    public void watch(List<String> visibleIds) {
+        Set<String> ids = new LinkedHashSet<>();
+        for (String uid : visibleIds) {
+            if (uid != null && ids.size() < MAX_WATCHED) {
+                ids.add(uid);
+            }
+        }
+        if (ids.equals(watchedIds)) {
+            return;
+        }
+        watchedIds = ids;
+
+        if (presenceListener != null) {
+            presenceListener.remove();
+            presenceListener = null;
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        presenceListener = bd.collection("users")
+                .whereIn(FieldPath.documentId(), new ArrayList<>(ids))
+                .addSnapshotListener((value, error) -> {
+                    if (error != null) {
+                        Log.e("PRESENCE", "Error al escuchar presencia: " + error.getMessage());
+                        return;
+                    }
+                    if (value == null) {
+                        return;
+                    }
+                    for (DocumentSnapshot document : value.getDocuments()) {
+                        Long lastSeen = document.getLong("lastSeen");
+                        if (lastSeen != null) {
+                            lastSeenByUid.put(document.getId(), lastSeen);
+                        }
+                    }
+                    listener.onPresenceChanged(lastSeenByUid);
+                });
+    }
+
+    public void stop() {
+        if (presenceListener != null) {
+            presenceListener.remove();
+            presenceListener = null;
+        }
+        watchedIds = new LinkedHashSet<>();
+    }
+}
@@ -0,0 +1,99 @@
+package utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+
+import java.util.Collections;
+
+// Indicador de "escribiendo...": documento efimero chats/{chatId}/typing/{uid} con la hora de caducidad
+public class TypingIndicator {
+
+    // Como mucho una escritura cada PUBLISH_INTERVAL_MS; el aviso caduca solo a los TYPING_TTL_MS
+    private static final long PUBLISH_INTERVAL_MS = 3000;
+    private static final long TYPING_TTL_MS = 5000;
+
+    private final DocumentReference ownTypingRef;
+    private final DocumentReference otherTypingRef;
+    private final OnTypingChangeListener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private ListenerRegistration typingListener;
+    private long lastPublishTime = 0;
+    private long publishedUntil = 0;
+    private boolean otherTyping = false;
+
+    private final Runnable hideRunnable = () -> setOtherTyping(false);
+
+    public interface OnTypingChangeListener {
+        void onTypingChanged(boolean isTyping);
+    }
+
+    public TypingIndicator(FirebaseFirestore bd, String chatId, String currentUserId,
+                           String otherUserId, OnTypingChangeListener listener) {
+        this.listener = listener;
+        ownTypingRef = bd.collection("chats").document(chatId).collection("typing").document(currentUserId);
+        otherTypingRef = bd.collection("chats").document(chatId).collection("typing").document(otherUserId);
+    }
+
+    public void start() {
+        typingListener = otherTypingRef.addSnapshotListener((value, error) -> {
+            if (error != null) {
+                Log.e("TYPING", "Error al escuchar escritura: " + error.getMessage());
+                return;
+            }
+            Long typingUntil = value != null ? value.getLong("typingUntil") : null;
+            long restante = typingUntil != null ? typingUntil - System.currentTimeMillis() : 0;
+
+            // Se oculta solo al caducar, sin esperar a otra escritura
+            handler.removeCallbacks(hideRunnable);
+            if (restante > 0) {
+                setOtherTyping(true);
+                handler.postDelayed(hideRunnable, restante);
+            } else {
+                setOtherTyping(false);
+            }
+        });
+    }
+
+    public void stop() {
+        handler.removeCallbacksAndMessages(null);
+        if (typingListener != null) {
+            typingListener.remove();
+            typingListener = null;
+        }
+    }
+
+    // Se llama en cada pulsacion: solo la primera de cada intervalo llega a Firestore
+    public void onUserTyping() {
+        long now = System.currentTimeMillis();
+        if (now - lastPublishTime < PUBLISH_INTERVAL_MS) {
+            return;
+        }
+        lastPublishTime = now;
+        publishedUntil = now + TYPING_TTL_MS;
+        ownTypingRef.set(Collections.singletonMap("typingUntil", publishedUntil));
+    }
+
+    // Al enviar o borrar el texto se retira el aviso si aun no habia caducado
+    public void onTypingStopped() {
+        long now = System.currentTimeMillis();
+        if (publishedUntil <= now) {
+            return;
+        }
+        publishedUntil = 0;
+        lastPublishTime = 0;
+        ownTypingRef.set(Collections.singletonMap("typingUntil", 0L));
+    }
+
+    private void setOtherTyping(boolean typing) {
+        if (typing != otherTyping) {
+            otherTyping = typing;
+            listener.onTypingChanged(typing);
+        }
+    }
+}
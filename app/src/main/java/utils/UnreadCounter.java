@@ -0,0 +1,86 @@
+package utils;
+
+import android.util.Log;
+
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Transaction;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+// No leidos por conversacion y usuario repartidos en SHARDS contadores (chats/{chatId}/unread/{uid}_{k}).
+// Cada mensaje suma 1 con FieldValue.increment en un shard al azar, asi una rafaga no se concentra en un
+// documento y cada shard ocupa lo mismo tenga uno o mil mensajes. El incremento no es idempotente: que un
+// reenvio no cuente dos veces lo resuelve la outbox (ver MessageOutbox.enviarLoteVerificado)
+public class UnreadCounter {
+
+    public static final int SHARDS = 4;
+
+    private UnreadCounter() {
+    }
+
+    public static DocumentReference shardRef(FirebaseFirestore bd, String chatId, String uid, int shard) {
+        return bd.collection("chats")
+                .document(chatId)
+                .collection("unread")
+                .document(uid + "_" + shard);
+    }
+
+    // uid y chatId van dentro del shard para poder consultarlos con collectionGroup("unread")
+    private static Map<String, Object> incremento(String chatId, String uid) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("uid", uid);
+        data.put("chatId", chatId);
+        data.put("count", FieldValue.increment(1));
+        return data;
+    }
+
+    private static DocumentReference shardAlAzar(FirebaseFirestore bd, String chatId, String uid) {
+        return shardRef(bd, chatId, uid, ThreadLocalRandom.current().nextInt(SHARDS));
+    }
+
+    public static void increment(FirebaseFirestore bd, WriteBatch batch, String chatId, String uid) {
+        batch.set(shardAlAzar(bd, chatId, uid), incremento(chatId, uid), SetOptions.merge());
+    }
+
+    public static void increment(FirebaseFirestore bd, Transaction transaction, String chatId, String uid) {
+        transaction.set(shardAlAzar(bd, chatId, uid), incremento(chatId, uid), SetOptions.merge());
+    }
+
+    // No leidos que aporta un shard
+    public static long count(DocumentSnapshot shard) {
+        Long count = shard.getLong("count");
+        return count != null ? count : 0;
+    }
+
+    // Pone a cero los shards en una transaccion: si entra un incremento entre la lectura y la escritura,
+    // Firestore repite la transaccion en vez de pisarlo. Los shards que ya estan a cero no se escriben
+    public static void reset(FirebaseFirestore bd, String chatId, String uid) {
+        List<DocumentReference> refs = new ArrayList<>();
+        for (int i = 0; i < SHARDS; i++) {
+            refs.add(shardRef(bd, chatId, uid, i));
+        }
+        bd.runTransaction(transaction -> {
+                    List<DocumentReference> pendientes = new ArrayList<>();
+                    for (DocumentReference ref : refs) {
+                        DocumentSnapshot shard = transaction.get(ref);
+                        if (shard.exists() && count(shard) > 0) {
+                            pendientes.add(ref);
+                        }
+                    }
+                    for (DocumentReference ref : pendientes) {
+                        transaction.update(ref, "count", 0);
+                    }
+                    return null;
+                })
+                .addOnFailureListener(e -> Log.e("UNREAD", "Error al poner a cero no leidos: " + e.getMessage()));
+    }
+}
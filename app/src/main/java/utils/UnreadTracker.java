@@ -0,0 +1,199 @@
+package utils;
+
+import android.util.Log;
+
+import com.google.firebase.firestore.AggregateSource;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// No leidos de las filas visibles con un unico listener sobre los shards: como mucho
+// SHARDS documentos por fila, sin depender de cuantos mensajes haya en cada chat.
+// Los grupos no tienen contador: se escucha el documento de miembro (lastRead) y, solo si el grupo
+// tiene actividad posterior, se cuenta con una agregacion (una lectura por cada mil mensajes)
+public class UnreadTracker {
+
+    // Limite de valores de un whereIn en Firestore
+    private static final int MAX_WATCHED = 30;
+
+    private final FirebaseFirestore bd;
+    private final String uid;
+    private final OnUnreadChangeListener listener;
+
+    private ListenerRegistration unreadListener;
+    private Set<String> watchedChats = new LinkedHashSet<>();
+    private final Map<String, Long> unreadByChat = new HashMap<>();
+
+    private ListenerRegistration groupListener;
+    private Set<String> watchedGroups = new LinkedHashSet<>();
+    private final Map<String, Long> lastReadByGroup = new HashMap<>();
+    // Ultimo mensaje de cada grupo segun su resumen, y hasta donde se ha contado ya
+    private final Map<String, Long> lastActivityByGroup = new HashMap<>();
+    private final Map<String, Long> countedUntil = new HashMap<>();
+
+    public interface OnUnreadChangeListener {
+        void onUnreadChanged(Map<String, Long> unreadByChat);
+    }
+
+    public UnreadTracker(FirebaseFirestore bd, String uid, OnUnreadChangeListener listener) {
+        this.bd = bd;
+        this.uid = uid;
+        this.listener = listener;
+    }
+
+    // Se llama con los chats de las filas visibles al parar el scroll; solo se resuscribe si cambian
+    public void watch(List<String> visibleChatIds) {
+        Set<String> ids = new LinkedHashSet<>();
+        Set<String> grupos = new LinkedHashSet<>();
+        for (String chatId : visibleChatIds) {
+            if (chatId == null) {
+                continue;
+            }
+            if (ChatIds.isGroup(chatId)) {
+                if (grupos.size() < MAX_WATCHED) {
+                    grupos.add(chatId);
+                }
+            } else if (ids.size() < MAX_WATCHED) {
+                ids.add(chatId);
+            }
+        }
+        watchGroups(grupos);
+        if (ids.equals(watchedChats)) {
+            return;
+        }
+        watchedChats = ids;
+
+        if (unreadListener != null) {
+            unreadListener.remove();
+            unreadListener = null;
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        unreadListener = bd.collectionGroup("unread")
+                .whereEqualTo("uid", uid)
+                .whereIn("chatId", new ArrayList<>(ids))
+                .addSnapshotListener((value, error) -> {
+                    if (error != null) {
+                        Log.e("UNREAD", "Error al escuchar no leidos: " + error.getMessage());
+                        return;
+                    }
+                    if (value == null) {
+                        return;
+                    }
+                    // El snapshot trae todos los shards de los chats vigilados: se recalculan sus totales
+                    for (String chatId : watchedChats) {
+                        unreadByChat.remove(chatId);
+                    }
+                    for (DocumentSnapshot document : value.getDocuments()) {
+                        String chatId = document.getString("chatId");
+                        if (chatId != null) {
+                            Long total = unreadByChat.get(chatId);
+                            unreadByChat.put(chatId, (total != null ? total : 0) + UnreadCounter.count(document));
+                        }
+                    }
+                    listener.onUnreadChanged(unreadByChat);
+                });
+    }
+
+    // Actividad de los grupos segun la bandeja de conversaciones: se recuentan los visibles que han cambiado
+    public void setGroupActivity(Map<String, Long> lastTimestampByGroup) {
+        lastActivityByGroup.putAll(lastTimestampByGroup);
+        for (String chatId : watchedGroups) {
+            contarGrupo(chatId);
+        }
+    }
+
+    private void watchGroups(Set<String> grupos) {
+        if (grupos.equals(watchedGroups)) {
+            return;
+        }
+        watchedGroups = grupos;
+
+        if (groupListener != null) {
+            groupListener.remove();
+            groupListener = null;
+        }
+        if (grupos.isEmpty()) {
+            return;
+        }
+
+        groupListener = bd.collectionGroup("members")
+                .whereEqualTo("uid", uid)
+                .whereIn("chatId", new ArrayList<>(grupos))
+                .addSnapshotListener((value, error) -> {
+                    if (error != null) {
+                        Log.e("UNREAD", "Error al escuchar grupos: " + error.getMessage());
+                        return;
+                    }
+                    if (value == null) {
+                        return;
+                    }
+                    for (DocumentSnapshot document : value.getDocuments()) {
+                        String chatId = document.getString("chatId");
+                        Long lastRead = document.getLong("lastRead");
+                        if (chatId != null && lastRead != null
+                                && !lastRead.equals(lastReadByGroup.put(chatId, lastRead))) {
+                            // Ha cambiado el punto de lectura: lo contado antes ya no vale
+                            countedUntil.remove(chatId);
+                        }
+                    }
+                    for (String chatId : watchedGroups) {
+                        contarGrupo(chatId);
+                    }
+                });
+    }
+
+    // Sin actividad posterior a lo leido no hace falta preguntar nada; si la hay, una agregacion por grupo
+    private void contarGrupo(String chatId) {
+        Long lastRead = lastReadByGroup.get(chatId);
+        Long lastActivity = lastActivityByGroup.get(chatId);
+        if (lastRead == null || lastActivity == null || lastActivity.equals(countedUntil.get(chatId))) {
+            return;
+        }
+        countedUntil.put(chatId, lastActivity);
+
+        if (lastActivity <= lastRead) {
+            actualizarGrupo(chatId, 0L);
+            return;
+        }
+        bd.collection("chats")
+                .document(chatId)
+                .collection("messages")
+                .whereGreaterThan("timestamp", lastRead)
+                .count()
+                .get(AggregateSource.SERVER)
+                .addOnSuccessListener(snapshot -> actualizarGrupo(chatId, snapshot.getCount()))
+                .addOnFailureListener(e -> {
+                    countedUntil.remove(chatId);
+                    Log.e("UNREAD", "Error al contar no leidos del grupo: " + e.getMessage());
+                });
+    }
+
+    private void actualizarGrupo(String chatId, long count) {
+        if (!Long.valueOf(count).equals(unreadByChat.put(chatId, count))) {
+            listener.onUnreadChanged(unreadByChat);
+        }
+    }
+
+    public void stop() {
+        if (unreadListener != null) {
+            unreadListener.remove();
+            unreadListener = null;
+        }
+        if (groupListener != null) {
+            groupListener.remove();
+            groupListener = null;
+        }
+        watchedChats = new LinkedHashSet<>();
+        watchedGroups = new LinkedHashSet<>();
+    }
+}
@@ -3,5 +3,6 @@ plugins {
 
     alias(libs.plugins.android.application) apply false
     id("com.google.gms.google-services") version "4.4.0" apply false
+    alias(libs.plugins.jmh) apply false
 
 }
\ No newline at end of file
@@ -0,0 +1,28 @@
+// Logica de dominio sin dependencias de Android: se compila y se mide en una JVM normal
+plugins {
+    `java-library`
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+tasks.withType<JavaCompile>().configureEach {
+    options.encoding = "UTF-8"
+}
+
+dependencies {
+    testImplementation(libs.junit)
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    warmupIterations.set(3)
+    iterations.set(5)
+    fork.set(1)
+    // Bytes asignados por operacion (gc.alloc.rate.norm) junto al rendimiento
+    profilers.add("gc")
+    resultFormat.set("JSON")
+}
@@ -0,0 +1,27 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import utils.ChatIds;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChatIdsBenchmark {
+
+    // Uids con la longitud real de Firebase Auth
+    private final String uidA = "9xQe2LmT0aVbN4kRzP7sW1yHc3D2";
+    private final String uidB = "Kq8Jd5Ft1GhXo2PmVz6Lc9Rb4Sw3";
+
+    @Benchmark
+    public String chatId() {
+        return ChatIds.chatId(uidA, uidB);
+    }
+}
@@ -0,0 +1,50 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import utils.LatencyTracker;
+
+// El registro va en el camino caliente (cada envio, cada snapshot): debe costar unos pocos nanosegundos
+// y no reservar memoria. Leer percentiles solo lo hace la pantalla de depuracion
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LatencyTrackerBenchmark {
+
+    private final LatencyTracker tracker = new LatencyTracker();
+    private long duration = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        for (int i = 0; i < LatencyTracker.CAPACITY; i++) {
+            tracker.record(LatencyTracker.Metric.SNAPSHOT_TO_BIND, i * 37_000L);
+        }
+    }
+
+    @Benchmark
+    public void record() {
+        duration = (duration + 250_000L) & 0xFFFFFFFL;
+        tracker.record(LatencyTracker.Metric.SEND_TO_ACK, duration);
+    }
+
+    // Pareja start/stop con clave, como en el envio de un mensaje
+    @Benchmark
+    public void startStop() {
+        tracker.start(LatencyTracker.Metric.SERVER_ECHO, "msg");
+        tracker.stop(LatencyTracker.Metric.SERVER_ECHO, "msg");
+    }
+
+    @Benchmark
+    public LatencyTracker.Stats stats() {
+        return tracker.stats(LatencyTracker.Metric.SNAPSHOT_TO_BIND);
+    }
+}
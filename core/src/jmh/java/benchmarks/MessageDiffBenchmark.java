@@ -0,0 +1,56 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import models.Message;
+import utils.MessageDiff;
+
+// Coste de las comparaciones que hace DiffUtil en cada submitList: una por fila en el caso normal
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessageDiffBenchmark {
+
+    private static final int SIZE = 300;
+
+    private List<Message> before;
+    private List<Message> after;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        before = Messages.conversation(SIZE, 1_000_000L);
+        // Copias (como hace ChatActivity al publicar) con algunos mensajes pasados a leidos
+        after = new ArrayList<>(SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            Message copy = new Message(before.get(i));
+            if (i % 10 == 0) {
+                copy.setRead(true);
+            }
+            after.add(copy);
+        }
+    }
+
+    @Benchmark
+    public int compareLists() {
+        int cambios = 0;
+        for (int i = 0; i < SIZE; i++) {
+            Message a = before.get(i);
+            Message b = after.get(i);
+            if (!MessageDiff.sameItem(a, b) || !MessageDiff.sameContents(a, b)) {
+                cambios++;
+            }
+        }
+        return cambios;
+    }
+}
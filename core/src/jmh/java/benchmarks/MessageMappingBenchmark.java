@@ -0,0 +1,106 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import models.Message;
+import models.MessageMapper;
+import models.User;
+import models.UserMapper;
+
+// Decodificar y codificar 10k documentos: mapeo a mano frente a mapeo por reflexion.
+// Los mapas de entrada tienen los tipos que entrega Firestore (enteros como Long)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MessageMappingBenchmark {
+
+    @Param({"10000"})
+    public int documents;
+
+    private final ReflectiveBeanMapper<Message> reflectiveMessages = new ReflectiveBeanMapper<>(Message.class);
+    private final ReflectiveBeanMapper<User> reflectiveUsers = new ReflectiveBeanMapper<>(User.class);
+
+    private List<Map<String, Object>> messageDocs;
+    private List<Map<String, Object>> userDocs;
+    private List<Message> messages;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        messages = Messages.conversation(documents, 1_000_000L);
+        messageDocs = new ArrayList<>(documents);
+        userDocs = new ArrayList<>(documents);
+        for (int i = 0; i < documents; i++) {
+            messageDocs.add(MessageMapper.toMap(messages.get(i)));
+            User user = new User("uid" + i, "user" + i + "@example.com", "Usuario " + i,
+                    "https://example.com/photos/" + i + ".jpg");
+            userDocs.add(UserMapper.toMap(user));
+        }
+    }
+
+    @Benchmark
+    public List<Message> decodeMessagesMapper() {
+        List<Message> decoded = new ArrayList<>(documents);
+        for (Map<String, Object> doc : messageDocs) {
+            decoded.add(MessageMapper.fromMap(doc, null));
+        }
+        return decoded;
+    }
+
+    @Benchmark
+    public List<Message> decodeMessagesReflection() throws ReflectiveOperationException {
+        List<Message> decoded = new ArrayList<>(documents);
+        for (Map<String, Object> doc : messageDocs) {
+            decoded.add(reflectiveMessages.fromMap(doc));
+        }
+        return decoded;
+    }
+
+    @Benchmark
+    public List<User> decodeUsersMapper() {
+        List<User> decoded = new ArrayList<>(documents);
+        for (Map<String, Object> doc : userDocs) {
+            decoded.add(UserMapper.fromMap(doc, null));
+        }
+        return decoded;
+    }
+
+    @Benchmark
+    public List<User> decodeUsersReflection() throws ReflectiveOperationException {
+        List<User> decoded = new ArrayList<>(documents);
+        for (Map<String, Object> doc : userDocs) {
+            decoded.add(reflectiveUsers.fromMap(doc));
+        }
+        return decoded;
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> encodeMessagesMapper() {
+        List<Map<String, Object>> encoded = new ArrayList<>(documents);
+        for (Message message : messages) {
+            encoded.add(MessageMapper.toMap(message));
+        }
+        return encoded;
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> encodeMessagesReflection() throws ReflectiveOperationException {
+        List<Map<String, Object>> encoded = new ArrayList<>(documents);
+        for (Message message : messages) {
+            encoded.add(reflectiveMessages.toMap(message));
+        }
+        return encoded;
+    }
+}
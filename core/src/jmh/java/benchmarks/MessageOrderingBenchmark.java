@@ -0,0 +1,65 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import models.Message;
+import utils.MessageOrdering;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessageOrderingBenchmark {
+
+    // Mensajes ya cargados en el chat
+    @Param({"30", "300", "3000"})
+    public int size;
+
+    private List<Message> loaded;
+    private List<Message> page;
+    private Message newest;
+    private Message reordered;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        loaded = Messages.conversation(size, 1_000_000L);
+        // Una pagina de snapshot que pisa los ultimos mensajes (cambio de leido) y trae alguno nuevo
+        page = new ArrayList<>();
+        for (int i = Math.max(0, size - 10); i < size; i++) {
+            Message updated = new Message(loaded.get(i));
+            updated.setRead(true);
+            page.add(updated);
+        }
+        page.addAll(Messages.conversation(5, 1_000_000L + size * 1000L));
+
+        newest = Messages.message("nuevo", 1_000_000L + size * 1000L);
+        // Llega tarde por la red: su sitio esta a mitad de la ultima pagina
+        reordered = Messages.message("tarde", 1_000_000L + (size - 15) * 1000L + 1);
+    }
+
+    @Benchmark
+    public int insertionIndexNewest() {
+        return MessageOrdering.insertionIndex(loaded, newest);
+    }
+
+    @Benchmark
+    public int insertionIndexOutOfOrder() {
+        return MessageOrdering.insertionIndex(loaded, reordered);
+    }
+
+    @Benchmark
+    public List<Message> mergeSnapshotPage() {
+        return MessageOrdering.merge(loaded, page);
+    }
+}
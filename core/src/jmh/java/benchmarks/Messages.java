@@ -0,0 +1,39 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import models.Message;
+
+// Datos de prueba comunes a los benchmarks: una conversacion entre dos usuarios, un mensaje por segundo
+final class Messages {
+
+    static final String ME = "9xQe2LmT0aVbN4kRzP7sW1yHc3D2";
+    static final String OTHER = "Kq8Jd5Ft1GhXo2PmVz6Lc9Rb4Sw3";
+
+    private static final String[] TEXTS = {
+            "Hola, ¿qué tal?",
+            "¿Quedamos mañana a las ocho en la estación?",
+            "Perfecto, allí nos vemos",
+            "Te paso la canción que te dije, escúchala cuando puedas porque está genial",
+            "ok",
+            "Acuérdate de traer el cargador del portátil, el mío se quedó en la oficina",
+    };
+
+    private Messages() {
+    }
+
+    static List<Message> conversation(int count, long firstTimestamp) {
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(message("m" + firstTimestamp + "_" + i, firstTimestamp + i * 1000L));
+        }
+        return messages;
+    }
+
+    static Message message(String id, long timestamp) {
+        boolean mine = (id.hashCode() & 1) == 0;
+        return new Message(id, mine ? ME : OTHER, mine ? OTHER : ME,
+                TEXTS[Math.floorMod(id.hashCode(), TEXTS.length)], timestamp);
+    }
+}
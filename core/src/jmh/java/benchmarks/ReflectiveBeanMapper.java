@@ -0,0 +1,62 @@
+package benchmarks;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+
+// Referencia para comparar: mapeo por getters y setters con reflexion, como el que hace el SDK de
+// Firestore en toObject()/set(pojo). Igual que el SDK, los metodos se buscan una vez y se cachean por clase
+final class ReflectiveBeanMapper<T> {
+
+    private final Class<T> type;
+    private final Map<String, Method> setters = new HashMap<>();
+    private final Map<String, Method> getters = new HashMap<>();
+
+    ReflectiveBeanMapper(Class<T> type) {
+        this.type = type;
+        for (Method method : type.getMethods()) {
+            if (Modifier.isStatic(method.getModifiers()) || method.getDeclaringClass() == Object.class) {
+                continue;
+            }
+            String name = method.getName();
+            if (name.startsWith("set") && method.getParameterCount() == 1) {
+                setters.put(propiedad(name, 3), method);
+            } else if (name.startsWith("get") && method.getParameterCount() == 0) {
+                getters.put(propiedad(name, 3), method);
+            } else if (name.startsWith("is") && method.getParameterCount() == 0) {
+                getters.put(propiedad(name, 2), method);
+            }
+        }
+    }
+
+    T fromMap(Map<String, Object> data) throws ReflectiveOperationException {
+        T bean = type.getDeclaredConstructor().newInstance();
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            Method setter = setters.get(entry.getKey());
+            if (setter != null && entry.getValue() != null) {
+                setter.invoke(bean, convertir(entry.getValue(), setter.getParameterTypes()[0]));
+            }
+        }
+        return bean;
+    }
+
+    Map<String, Object> toMap(T bean) throws ReflectiveOperationException {
+        Map<String, Object> map = new HashMap<>();
+        for (Map.Entry<String, Method> entry : getters.entrySet()) {
+            map.put(entry.getKey(), entry.getValue().invoke(bean));
+        }
+        return map;
+    }
+
+    private static Object convertir(Object value, Class<?> target) {
+        if (value instanceof Long && (target == int.class || target == Integer.class)) {
+            return ((Long) value).intValue();
+        }
+        return value;
+    }
+
+    private static String propiedad(String methodName, int prefix) {
+        return Character.toLowerCase(methodName.charAt(prefix)) + methodName.substring(prefix + 1);
+    }
+}
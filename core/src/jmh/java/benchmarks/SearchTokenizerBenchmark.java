@@ -0,0 +1,34 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import utils.SearchTokenizer;
+
+// Se ejecuta por cada mensaje que entra en la cache, asi que marca el coste de mantener el indice
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchTokenizerBenchmark {
+
+    private final String shortText = "¿Quedamos mañana?";
+    private final String longText = "Te paso la canción que te dije, escúchala cuando puedas porque está genial. "
+            + "Acuérdate de traer el cargador del portátil, el mío se quedó en la oficina y no llego a las ocho.";
+
+    @Benchmark
+    public Set<String> tokenizeShort() {
+        return SearchTokenizer.tokenize(shortText);
+    }
+
+    @Benchmark
+    public Set<String> tokenizeLong() {
+        return SearchTokenizer.tokenize(longText);
+    }
+}
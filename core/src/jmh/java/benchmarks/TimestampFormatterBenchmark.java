@@ -0,0 +1,55 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import utils.TimestampFormatter;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TimestampFormatterBenchmark {
+
+    // Timestamps de una conversacion de varios dias: los binds repiten minutos
+    private static final int COUNT = 1024;
+
+    private final TimestampFormatter formatter = new TimestampFormatter();
+    private final long[] timestamps = new long[COUNT];
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < COUNT; i++) {
+            timestamps[i] = now - (COUNT - i) * 7 * 60_000L;
+        }
+    }
+
+    private long nextTimestamp() {
+        long timestamp = timestamps[next];
+        next = (next + 1) & (COUNT - 1);
+        return timestamp;
+    }
+
+    @Benchmark
+    public String formatCached() {
+        return formatter.formatMessageTime(nextTimestamp());
+    }
+
+    // Lo que hacia el adapter antes: un SimpleDateFormat nuevo en cada bind
+    @Benchmark
+    public String formatNewSimpleDateFormat() {
+        return new SimpleDateFormat("HH:mm", Locale.getDefault()).format(new Date(nextTimestamp()));
+    }
+}
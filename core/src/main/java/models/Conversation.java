@@ -0,0 +1,120 @@
+package models;
+
+import java.util.List;
+import java.util.Map;
+
+// Resumen de una conversacion guardado en chats/{chatId}, se mantiene al enviar cada mensaje.
+// En los grupos es tambien la lista de miembros con sus nombres y fotos: las burbujas se pintan con ella
+public class Conversation {
+
+    private String chatId;
+    private List<String> participants;
+    private Map<String, String> participantNames;
+    private Map<String, String> participantPhotos;
+    private String lastMessage;
+    private String lastSenderId;
+    private long lastTimestamp;
+    private boolean group;
+    private String title;
+
+    //Constructor vacio, necesario para Firebase
+    public Conversation() {
+    }
+
+    // Nombre que se muestra: el titulo en un grupo, el otro participante en un chat uno a uno
+    public String getDisplayName(String currentUserId) {
+        if (group) {
+            return title;
+        }
+        String otherId = getOtherParticipant(currentUserId);
+        return participantNames != null && otherId != null ? participantNames.get(otherId) : null;
+    }
+
+    public String getParticipantName(String userId) {
+        return participantNames != null && userId != null ? participantNames.get(userId) : null;
+    }
+
+    // El otro participante de un chat entre dos usuarios
+    public String getOtherParticipant(String currentUserId) {
+        if (participants != null) {
+            for (String uid : participants) {
+                if (!uid.equals(currentUserId)) {
+                    return uid;
+                }
+            }
+        }
+        return null;
+    }
+
+    public String getChatId() {
+        return chatId;
+    }
+
+    public void setChatId(String chatId) {
+        this.chatId = chatId;
+    }
+
+    public List<String> getParticipants() {
+        return participants;
+    }
+
+    public void setParticipants(List<String> participants) {
+        this.participants = participants;
+    }
+
+    public Map<String, String> getParticipantNames() {
+        return participantNames;
+    }
+
+    public void setParticipantNames(Map<String, String> participantNames) {
+        this.participantNames = participantNames;
+    }
+
+    public Map<String, String> getParticipantPhotos() {
+        return participantPhotos;
+    }
+
+    public void setParticipantPhotos(Map<String, String> participantPhotos) {
+        this.participantPhotos = participantPhotos;
+    }
+
+    public String getLastMessage() {
+        return lastMessage;
+    }
+
+    public void setLastMessage(String lastMessage) {
+        this.lastMessage = lastMessage;
+    }
+
+    public String getLastSenderId() {
+        return lastSenderId;
+    }
+
+    public void setLastSenderId(String lastSenderId) {
+        this.lastSenderId = lastSenderId;
+    }
+
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    public void setLastTimestamp(long lastTimestamp) {
+        this.lastTimestamp = lastTimestamp;
+    }
+
+    public boolean isGroup() {
+        return group;
+    }
+
+    public void setGroup(boolean group) {
+        this.group = group;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+}
@@ -0,0 +1,137 @@
+package models;
+
+public class Message {
+
+    // Tipos de mensaje; los documentos antiguos sin tipo son de texto
+    public static final String TYPE_TEXT = "text";
+    public static final String TYPE_IMAGE = "image";
+
+    private String messageId;
+    private String senderId;
+    private String receiverId;
+    private String message;
+    private long timestamp;
+    private boolean read;
+
+    private String type;
+    private String imageUrl;
+    private String thumbnail; // Miniatura JPEG en Base64 para pintar algo antes de descargar la imagen
+    private int imageWidth;
+    private int imageHeight;
+
+    public Message(String messageId, String senderId, String receiverId, String message, long timestamp) {
+        this.messageId = messageId;
+        this.senderId = senderId;
+        this.receiverId = receiverId;
+        this.message = message;
+        this.timestamp = timestamp;
+        this.read = false;
+        this.type = TYPE_TEXT;
+    }
+
+    public Message() {
+    }
+
+    // Copia para cambiar el estado sin tocar el objeto que ya tiene el adapter
+    public Message(Message other) {
+        this.messageId = other.messageId;
+        this.senderId = other.senderId;
+        this.receiverId = other.receiverId;
+        this.message = other.message;
+        this.timestamp = other.timestamp;
+        this.read = other.read;
+        this.type = other.type;
+        this.imageUrl = other.imageUrl;
+        this.thumbnail = other.thumbnail;
+        this.imageWidth = other.imageWidth;
+        this.imageHeight = other.imageHeight;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public void setMessageId(String messageId) {
+        this.messageId = messageId;
+    }
+
+    public boolean isRead() {
+        return read;
+    }
+
+    public void setRead(boolean read) {
+        this.read = read;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public String getReceiverId() {
+        return receiverId;
+    }
+
+    public void setReceiverId(String receiverId) {
+        this.receiverId = receiverId;
+    }
+
+    public String getSenderId() {
+        return senderId;
+    }
+
+    public void setSenderId(String senderId) {
+        this.senderId = senderId;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getImageUrl() {
+        return imageUrl;
+    }
+
+    public void setImageUrl(String imageUrl) {
+        this.imageUrl = imageUrl;
+    }
+
+    public String getThumbnail() {
+        return thumbnail;
+    }
+
+    public void setThumbnail(String thumbnail) {
+        this.thumbnail = thumbnail;
+    }
+
+    public int getImageWidth() {
+        return imageWidth;
+    }
+
+    public void setImageWidth(int imageWidth) {
+        this.imageWidth = imageWidth;
+    }
+
+    public int getImageHeight() {
+        return imageHeight;
+    }
+
+    public void setImageHeight(int imageHeight) {
+        this.imageHeight = imageHeight;
+    }
+}
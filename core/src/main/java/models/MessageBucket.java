@@ -0,0 +1,58 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Historial sellado de un chat: varios cientos de mensajes ya leidos en un solo documento
+// (chats/{chatId}/buckets/{id del primer mensaje}), ordenados como en MessageOrdering
+public class MessageBucket {
+
+    private List<Message> messages = new ArrayList<>();
+    private long firstTimestamp;
+    private long lastTimestamp;
+    private int count;
+
+    public MessageBucket() {
+    }
+
+    public MessageBucket(List<Message> messages) {
+        this.messages = new ArrayList<>(messages);
+        this.count = messages.size();
+        if (!messages.isEmpty()) {
+            this.firstTimestamp = messages.get(0).getTimestamp();
+            this.lastTimestamp = messages.get(messages.size() - 1).getTimestamp();
+        }
+    }
+
+    public List<Message> getMessages() {
+        return messages;
+    }
+
+    public void setMessages(List<Message> messages) {
+        this.messages = messages;
+    }
+
+    public long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    public void setFirstTimestamp(long firstTimestamp) {
+        this.firstTimestamp = firstTimestamp;
+    }
+
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    public void setLastTimestamp(long lastTimestamp) {
+        this.lastTimestamp = lastTimestamp;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+}
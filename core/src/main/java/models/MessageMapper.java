@@ -0,0 +1,117 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Conversion sin reflexion entre Message y los mapas de Firestore (DocumentSnapshot.getData() / set(Map)).
+// Los nombres de campo son los mismos que generaba el mapeo por getters, asi que los documentos no cambian
+public class MessageMapper {
+
+    public static final String MESSAGE_ID = "messageId";
+    public static final String SENDER_ID = "senderId";
+    public static final String RECEIVER_ID = "receiverId";
+    public static final String MESSAGE = "message";
+    public static final String TIMESTAMP = "timestamp";
+    public static final String READ = "read";
+    public static final String TYPE = "type";
+    public static final String IMAGE_URL = "imageUrl";
+    public static final String THUMBNAIL = "thumbnail";
+    public static final String IMAGE_WIDTH = "imageWidth";
+    public static final String IMAGE_HEIGHT = "imageHeight";
+    // Lo pone el servidor al escribir (FieldValue.serverTimestamp()); no forma parte de Message y solo
+    // sirve de cursor para sincronizar, porque el timestamp del mensaje es el reloj del emisor
+    public static final String SERVER_TIME = "serverTime";
+
+    private static final String BUCKET_MESSAGES = "messages";
+    private static final String BUCKET_FIRST_TIMESTAMP = "firstTimestamp";
+    private static final String BUCKET_LAST_TIMESTAMP = "lastTimestamp";
+    private static final String BUCKET_COUNT = "count";
+
+    private MessageMapper() {
+    }
+
+    public static Map<String, Object> toMap(Message message) {
+        Map<String, Object> map = new HashMap<>(16);
+        map.put(MESSAGE_ID, message.getMessageId());
+        map.put(SENDER_ID, message.getSenderId());
+        map.put(RECEIVER_ID, message.getReceiverId());
+        map.put(MESSAGE, message.getMessage());
+        map.put(TIMESTAMP, message.getTimestamp());
+        map.put(READ, message.isRead());
+        map.put(TYPE, message.getType());
+        map.put(IMAGE_URL, message.getImageUrl());
+        map.put(THUMBNAIL, message.getThumbnail());
+        map.put(IMAGE_WIDTH, message.getImageWidth());
+        map.put(IMAGE_HEIGHT, message.getImageHeight());
+        return map;
+    }
+
+    // Sin messageId en el documento se usa el id del documento; null si no hay datos
+    public static Message fromMap(Map<String, Object> data, String documentId) {
+        if (data == null) {
+            return null;
+        }
+        Message message = new Message();
+        String messageId = asString(data.get(MESSAGE_ID));
+        message.setMessageId(messageId != null ? messageId : documentId);
+        message.setSenderId(asString(data.get(SENDER_ID)));
+        message.setReceiverId(asString(data.get(RECEIVER_ID)));
+        message.setMessage(asString(data.get(MESSAGE)));
+        message.setTimestamp(asLong(data.get(TIMESTAMP)));
+        message.setRead(Boolean.TRUE.equals(data.get(READ)));
+        message.setType(asString(data.get(TYPE)));
+        message.setImageUrl(asString(data.get(IMAGE_URL)));
+        message.setThumbnail(asString(data.get(THUMBNAIL)));
+        message.setImageWidth((int) asLong(data.get(IMAGE_WIDTH)));
+        message.setImageHeight((int) asLong(data.get(IMAGE_HEIGHT)));
+        return message;
+    }
+
+    public static Map<String, Object> toMap(MessageBucket bucket) {
+        List<Map<String, Object>> messages = new ArrayList<>(bucket.getMessages().size());
+        for (Message message : bucket.getMessages()) {
+            messages.add(toMap(message));
+        }
+        Map<String, Object> map = new HashMap<>(8);
+        map.put(BUCKET_MESSAGES, messages);
+        map.put(BUCKET_FIRST_TIMESTAMP, bucket.getFirstTimestamp());
+        map.put(BUCKET_LAST_TIMESTAMP, bucket.getLastTimestamp());
+        map.put(BUCKET_COUNT, bucket.getCount());
+        return map;
+    }
+
+    public static MessageBucket bucketFromMap(Map<String, Object> data) {
+        if (data == null) {
+            return null;
+        }
+        MessageBucket bucket = new MessageBucket();
+        Object messages = data.get(BUCKET_MESSAGES);
+        if (messages instanceof List) {
+            List<?> raw = (List<?>) messages;
+            List<Message> decoded = new ArrayList<>(raw.size());
+            for (Object item : raw) {
+                if (item instanceof Map) {
+                    @SuppressWarnings("unchecked")
+                    Message message = fromMap((Map<String, Object>) item, null);
+                    decoded.add(message);
+                }
+            }
+            bucket.setMessages(decoded);
+        }
+        bucket.setFirstTimestamp(asLong(data.get(BUCKET_FIRST_TIMESTAMP)));
+        bucket.setLastTimestamp(asLong(data.get(BUCKET_LAST_TIMESTAMP)));
+        bucket.setCount((int) asLong(data.get(BUCKET_COUNT)));
+        return bucket;
+    }
+
+    static String asString(Object value) {
+        return value instanceof String ? (String) value : null;
+    }
+
+    // Firestore devuelve los enteros como Long, pero un documento escrito a mano puede traer Double
+    static long asLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0L;
+    }
+}
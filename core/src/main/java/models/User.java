@@ -1,6 +1,6 @@
 package models;
 
-import android.net.Uri;
+import java.util.Locale;
 
 public class User {
 
@@ -10,6 +10,8 @@ public class User {
     private String email;
     private String displayName;
 
+    private String displayNameLower; // Para la busqueda por prefijo sin distinguir mayusculas
+
     private String photoUrl;
 
     private long lastSeen;
@@ -18,6 +20,7 @@ public class User {
         this.uid = uid;
         this.email = email;
         this.displayName = displayName;
+        this.displayNameLower = displayName != null ? displayName.toLowerCase(Locale.ROOT) : null;
         this.photoUrl = photoUrl;
         this.lastSeen = System.currentTimeMillis();
     }
@@ -62,6 +65,14 @@ public class User {
         this.displayName = displayName;
     }
 
+    public String getDisplayNameLower() {
+        return displayNameLower;
+    }
+
+    public void setDisplayNameLower(String displayNameLower) {
+        this.displayNameLower = displayNameLower;
+    }
+
     public String getEmail() {
         return email;
     }
@@ -0,0 +1,45 @@
+package models;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Conversion sin reflexion entre User y los mapas de Firestore, con los mismos nombres de campo de siempre
+public class UserMapper {
+
+    public static final String UID = "uid";
+    public static final String EMAIL = "email";
+    public static final String DISPLAY_NAME = "displayName";
+    public static final String DISPLAY_NAME_LOWER = "displayNameLower";
+    public static final String PHOTO_URL = "photoUrl";
+    public static final String LAST_SEEN = "lastSeen";
+
+    private UserMapper() {
+    }
+
+    public static Map<String, Object> toMap(User user) {
+        Map<String, Object> map = new HashMap<>(8);
+        map.put(UID, user.getUid());
+        map.put(EMAIL, user.getEmail());
+        map.put(DISPLAY_NAME, user.getDisplayName());
+        map.put(DISPLAY_NAME_LOWER, user.getDisplayNameLower());
+        map.put(PHOTO_URL, user.getPhotoUrl());
+        map.put(LAST_SEEN, user.getLastSeen());
+        return map;
+    }
+
+    // Sin uid en el documento se usa el id del documento; null si no hay datos
+    public static User fromMap(Map<String, Object> data, String documentId) {
+        if (data == null) {
+            return null;
+        }
+        User user = new User();
+        String uid = MessageMapper.asString(data.get(UID));
+        user.setUid(uid != null ? uid : documentId);
+        user.setEmail(MessageMapper.asString(data.get(EMAIL)));
+        user.setDisplayName(MessageMapper.asString(data.get(DISPLAY_NAME)));
+        user.setDisplayNameLower(MessageMapper.asString(data.get(DISPLAY_NAME_LOWER)));
+        user.setPhotoUrl(MessageMapper.asString(data.get(PHOTO_URL)));
+        user.setLastSeen(MessageMapper.asLong(data.get(LAST_SEEN)));
+        return user;
+    }
+}
@@ -0,0 +1,27 @@
+package utils;
+
+// Identificadores de chat. Uno a uno: los dos uid ordenados, el mismo sin importar quien lo abra.
+// Grupo: prefijo fijo mas un id aleatorio; los uid de Firebase son alfanumericos, asi que no se confunden
+public class ChatIds {
+
+    public static final String GROUP_PREFIX = "group-";
+
+    private ChatIds() {
+    }
+
+    public static String chatId(String userId1, String userId2) {
+        if (userId1.compareTo(userId2) < 0) {
+            return userId1 + "_" + userId2;
+        } else {
+            return userId2 + "_" + userId1;
+        }
+    }
+
+    public static String groupId(String randomId) {
+        return GROUP_PREFIX + randomId;
+    }
+
+    public static boolean isGroup(String chatId) {
+        return chatId != null && chatId.startsWith(GROUP_PREFIX);
+    }
+}
@@ -0,0 +1,252 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Latencias del camino caliente (enviar, eco del servidor, snapshot hasta pintado, primer frame del chat).
+// Cada metrica guarda las ultimas CAPACITY muestras en un anillo sin cerrojos y un histograma acumulado
+// en potencias de dos de milisegundo. Registrar no reserva memoria; los percentiles se calculan al leer
+public class LatencyTracker {
+
+    public enum Metric {
+        SEND_TO_ACK("envio → confirmacion"),
+        SERVER_ECHO("envio → eco del servidor"),
+        SNAPSHOT_TO_BIND("snapshot → pintado"),
+        FIRST_FRAME("apertura → primer frame");
+
+        private final String label;
+
+        Metric(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    // Potencia de dos para calcular la posicion con una mascara
+    public static final int CAPACITY = 512;
+    private static final int MASK = CAPACITY - 1;
+    // Cubo k: [2^(k-1), 2^k) ms; el cubo 0 es por debajo de 1 ms y el ultimo todo lo que pase de 16 s
+    public static final int HISTOGRAM_BUCKETS = 16;
+    // Mediciones empezadas sin terminar; si se llena (mensajes que nunca se confirman) sale la mas antigua
+    static final int MAX_PENDING = 1024;
+
+    private static final LatencyTracker INSTANCE = new LatencyTracker();
+
+    private final Ring[] rings = new Ring[Metric.values().length];
+    private final ConcurrentHashMap<String, Long> pending = new ConcurrentHashMap<>();
+
+    public static LatencyTracker getInstance() {
+        return INSTANCE;
+    }
+
+    public LatencyTracker() {
+        for (int i = 0; i < rings.length; i++) {
+            rings[i] = new Ring();
+        }
+    }
+
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    public void record(Metric metric, long durationNanos) {
+        if (durationNanos >= 0) {
+            // El 0 marca en el anillo una posicion reservada que aun no se ha escrito
+            rings[metric.ordinal()].add(Math.max(1, durationNanos));
+        }
+    }
+
+    // Empieza una medicion que se cierra en otro sitio (otro hilo, otro callback) con la misma clave
+    public void start(Metric metric, String key) {
+        start(metric, key, now());
+    }
+
+    // Si ya habia una empezada con la misma clave se conserva la mas antigua
+    public void start(Metric metric, String key, long startNanos) {
+        if (pending.size() >= MAX_PENDING) {
+            descartarMasAntigua();
+        }
+        pending.putIfAbsent(pendingKey(metric, key), startNanos);
+    }
+
+    // Solo con el mapa lleno: un recorrido de MAX_PENDING entradas, las que siguen en vuelo no se tocan
+    private void descartarMasAntigua() {
+        String masAntigua = null;
+        long inicio = Long.MAX_VALUE;
+        for (Map.Entry<String, Long> entry : pending.entrySet()) {
+            if (entry.getValue() < inicio) {
+                inicio = entry.getValue();
+                masAntigua = entry.getKey();
+            }
+        }
+        if (masAntigua != null) {
+            pending.remove(masAntigua, inicio);
+        }
+    }
+
+    // Sin start previo no registra nada
+    public void stop(Metric metric, String key) {
+        Long inicio = pending.remove(pendingKey(metric, key));
+        if (inicio != null) {
+            record(metric, now() - inicio);
+        }
+    }
+
+    private static String pendingKey(Metric metric, String key) {
+        return metric.ordinal() + ":" + key;
+    }
+
+    public Stats stats(Metric metric) {
+        return rings[metric.ordinal()].stats();
+    }
+
+    public long[] histogram(Metric metric) {
+        return rings[metric.ordinal()].histogram();
+    }
+
+    public void reset() {
+        for (Ring ring : rings) {
+            ring.clear();
+        }
+        pending.clear();
+    }
+
+    // Texto para la pantalla de depuracion y para volcar a fichero
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Metric metric : Metric.values()) {
+            Stats stats = stats(metric);
+            sb.append(metric.name()).append(" (").append(metric.getLabel()).append(")\n");
+            if (stats.count == 0) {
+                sb.append("  sin muestras\n\n");
+                continue;
+            }
+            sb.append(String.format(Locale.US, "  n=%d (total %d)  media=%.1f ms%n", stats.count, stats.total, ms(stats.mean)));
+            sb.append(String.format(Locale.US, "  p50=%.1f  p90=%.1f  p99=%.1f  max=%.1f ms%n",
+                    ms(stats.p50), ms(stats.p90), ms(stats.p99), ms(stats.max)));
+            long[] histogram = histogram(metric);
+            for (int i = 0; i < histogram.length; i++) {
+                if (histogram[i] > 0) {
+                    sb.append(String.format(Locale.US, "  %10s %8d%n", bucketLabel(i), histogram[i]));
+                }
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static double ms(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    static String bucketLabel(int bucket) {
+        if (bucket == 0) {
+            return "<1 ms";
+        }
+        if (bucket == HISTOGRAM_BUCKETS - 1) {
+            return ">=" + (1L << (bucket - 1)) + " ms";
+        }
+        return "<" + (1L << bucket) + " ms";
+    }
+
+    static int bucketOf(long nanos) {
+        long millis = nanos / 1_000_000;
+        if (millis <= 0) {
+            return 0;
+        }
+        // 1 ms → cubo 1, 2-3 ms → cubo 2, 4-7 ms → cubo 3...
+        int bucket = 64 - Long.numberOfLeadingZeros(millis);
+        return Math.min(bucket, HISTOGRAM_BUCKETS - 1);
+    }
+
+    public static class Stats {
+        public final int count;
+        public final long total;
+        public final long mean;
+        public final long p50;
+        public final long p90;
+        public final long p99;
+        public final long max;
+
+        Stats(int count, long total, long mean, long p50, long p90, long p99, long max) {
+            this.count = count;
+            this.total = total;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.max = max;
+        }
+    }
+
+    // Varios hilos pueden escribir a la vez: cada uno reserva su posicion con getAndIncrement.
+    // Una lectura concurrente puede ver una muestra recien pisada, lo que no cambia los percentiles,
+    // o una posicion reservada y aun sin escribir (a 0), que se salta
+    private static class Ring {
+        private final AtomicLongArray values = new AtomicLongArray(CAPACITY);
+        private final AtomicLong written = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(HISTOGRAM_BUCKETS);
+
+        void add(long nanos) {
+            long index = written.getAndIncrement();
+            values.set((int) (index & MASK), nanos);
+            buckets.incrementAndGet(bucketOf(nanos));
+        }
+
+        Stats stats() {
+            long total = written.get();
+            int count = (int) Math.min(total, CAPACITY);
+            if (count == 0) {
+                return new Stats(0, 0, 0, 0, 0, 0, 0);
+            }
+            long[] copia = new long[count];
+            long suma = 0;
+            int escritas = 0;
+            for (int i = 0; i < count; i++) {
+                long value = values.get(i);
+                if (value > 0) {
+                    copia[escritas++] = value;
+                    suma += value;
+                }
+            }
+            if (escritas == 0) {
+                return new Stats(0, total, 0, 0, 0, 0, 0);
+            }
+            copia = Arrays.copyOf(copia, escritas);
+            Arrays.sort(copia);
+            return new Stats(escritas, total, suma / escritas,
+                    percentile(copia, 50), percentile(copia, 90), percentile(copia, 99), copia[escritas - 1]);
+        }
+
+        long[] histogram() {
+            long[] copia = new long[HISTOGRAM_BUCKETS];
+            for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+                copia[i] = buckets.get(i);
+            }
+            return copia;
+        }
+
+        void clear() {
+            written.set(0);
+            for (int i = 0; i < CAPACITY; i++) {
+                values.set(i, 0);
+            }
+            for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+        }
+
+        // Rango mas cercano sobre las muestras ordenadas
+        private static long percentile(long[] ordenadas, int percentil) {
+            int rango = (int) Math.ceil(percentil / 100.0 * ordenadas.length);
+            return ordenadas[Math.max(0, rango - 1)];
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import models.Message;
+
+// Reglas para sellar historial en buckets: que mensajes pueden salir de la cola de documentos sueltos
+public class MessageBuckets {
+
+    public static final int BUCKET_SIZE = 200;
+    // Un bucket mas pequeño no compensa la escritura
+    public static final int MIN_BUCKET_SIZE = 50;
+    // Solo se sella lo que ya no va a cambiar: antiguo y leido
+    public static final long SEAL_AGE_MS = 7L * 24 * 60 * 60 * 1000;
+    // Margen sobre el limite de 1 MiB por documento de Firestore
+    public static final int MAX_BUCKET_BYTES = 700_000;
+    private static final int BYTES_PER_MESSAGE = 200;
+
+    private MessageBuckets() {
+    }
+
+    public static boolean isSealed(long timestamp, long now) {
+        return timestamp < now - SEAL_AGE_MS;
+    }
+
+    // El mensaje queda en o antes de la marca de compactacion del chat (compactedUntil, compactedUntilId),
+    // con el mismo orden que MessageOrdering.COMPARATOR
+    public static boolean isCompacted(long timestamp, String messageId, Long compactedUntil, String compactedUntilId) {
+        return MessageOrdering.isAtOrBefore(timestamp, messageId, compactedUntil, compactedUntilId);
+    }
+
+    // Prefijo de la cola (ordenada, la mas antigua primero) que se puede sellar. Se corta en el primer
+    // mensaje que aun puede recibir escrituras: reciente, sin leer o imagen sin subir
+    public static List<Message> sealablePrefix(List<Message> oldestFirst, long now) {
+        List<Message> prefix = new ArrayList<>();
+        int bytes = 0;
+        for (Message message : oldestFirst) {
+            if (prefix.size() >= BUCKET_SIZE || !isSealed(message.getTimestamp(), now) || !message.isRead()) {
+                break;
+            }
+            if (Message.TYPE_IMAGE.equals(message.getType()) && message.getImageUrl() == null) {
+                break;
+            }
+            bytes += estimateBytes(message);
+            if (bytes > MAX_BUCKET_BYTES) {
+                break;
+            }
+            prefix.add(message);
+        }
+        return prefix.size() >= MIN_BUCKET_SIZE ? prefix : new ArrayList<>();
+    }
+
+    // Mensajes de un bucket estrictamente anteriores al cursor, en orden
+    public static List<Message> before(List<Message> bucket, Message cursor) {
+        List<Message> anteriores = new ArrayList<>();
+        for (Message message : bucket) {
+            if (MessageOrdering.COMPARATOR.compare(message, cursor) < 0) {
+                anteriores.add(message);
+            }
+        }
+        return anteriores;
+    }
+
+    private static int estimateBytes(Message message) {
+        int bytes = BYTES_PER_MESSAGE;
+        bytes += message.getMessage() != null ? message.getMessage().length() * 2 : 0;
+        bytes += message.getThumbnail() != null ? message.getThumbnail().length() : 0;
+        bytes += message.getImageUrl() != null ? message.getImageUrl().length() : 0;
+        return bytes;
+    }
+}
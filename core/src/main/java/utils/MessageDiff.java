@@ -0,0 +1,27 @@
+package utils;
+
+import java.util.Objects;
+
+import models.Message;
+
+// Criterios de diff de la lista de mensajes; el adapter los usa desde su DiffUtil.ItemCallback
+public class MessageDiff {
+
+    private MessageDiff() {
+    }
+
+    public static boolean sameItem(Message oldItem, Message newItem) {
+        return Objects.equals(oldItem.getMessageId(), newItem.getMessageId());
+    }
+
+    // Los campos baratos primero: casi todas las diferencias reales son el estado de lectura
+    public static boolean sameContents(Message oldItem, Message newItem) {
+        return oldItem.getTimestamp() == newItem.getTimestamp()
+                && oldItem.isRead() == newItem.isRead()
+                && Objects.equals(oldItem.getSenderId(), newItem.getSenderId())
+                && Objects.equals(oldItem.getMessage(), newItem.getMessage())
+                && Objects.equals(oldItem.getType(), newItem.getType())
+                && Objects.equals(oldItem.getImageUrl(), newItem.getImageUrl())
+                && Objects.equals(oldItem.getThumbnail(), newItem.getThumbnail());
+    }
+}
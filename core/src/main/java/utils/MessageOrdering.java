@@ -0,0 +1,88 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import models.Message;
+
+// Orden de los mensajes de un chat: por timestamp y, con empate, por id (el mismo cursor que usa Firestore)
+public class MessageOrdering {
+
+    public static final Comparator<Message> COMPARATOR = (a, b) -> {
+        int porTiempo = Long.compare(a.getTimestamp(), b.getTimestamp());
+        if (porTiempo != 0) {
+            return porTiempo;
+        }
+        return compararIds(a.getMessageId(), b.getMessageId());
+    };
+
+    private MessageOrdering() {
+    }
+
+    // Posicion donde insertar el mensaje en una lista ordenada segun COMPARATOR. Casi siempre es un mensaje
+    // nuevo, asi que se mira primero el final y si no, busqueda binaria. Con el mismo timestamp e id queda
+    // detras de los existentes
+    public static int insertionIndex(List<Message> messages, Message message) {
+        int size = messages.size();
+        if (size == 0 || COMPARATOR.compare(messages.get(size - 1), message) <= 0) {
+            return size;
+        }
+        int low = 0;
+        int high = size - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (COMPARATOR.compare(messages.get(mid), message) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // El mensaje (timestamp, messageId) queda en o antes de una marca guardada con el mismo orden que COMPARATOR
+    // (compactacion, lectura). Sin marca, nada queda antes
+    public static boolean isAtOrBefore(long timestamp, String messageId, Long untilTimestamp, String untilId) {
+        if (untilTimestamp == null) {
+            return false;
+        }
+        if (timestamp != untilTimestamp) {
+            return timestamp < untilTimestamp;
+        }
+        return untilId != null && compararIds(messageId, untilId) <= 0;
+    }
+
+    // Mezcla dos listas ordenadas; si un id esta en las dos gana la version de incoming
+    public static List<Message> merge(List<Message> current, List<Message> incoming) {
+        Map<String, Message> nuevos = new HashMap<>(incoming.size() * 2);
+        for (Message message : incoming) {
+            nuevos.put(message.getMessageId(), message);
+        }
+
+        List<Message> merged = new ArrayList<>(current.size() + incoming.size());
+        int i = 0;
+        int j = 0;
+        while (i < current.size() || j < incoming.size()) {
+            if (i < current.size() && nuevos.containsKey(current.get(i).getMessageId())) {
+                // Se sustituye por la version nueva, que entra por su propio orden
+                i++;
+            } else if (j >= incoming.size()
+                    || (i < current.size() && COMPARATOR.compare(current.get(i), incoming.get(j)) <= 0)) {
+                merged.add(current.get(i++));
+            } else {
+                merged.add(incoming.get(j++));
+            }
+        }
+        return merged;
+    }
+
+    private static int compararIds(String a, String b) {
+        if (a == null) {
+            return b == null ? 0 : -1;
+        }
+        return b == null ? 1 : a.compareTo(b);
+    }
+}
@@ -0,0 +1,42 @@
+package utils;
+
+import java.text.Normalizer;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+// Trocea el texto en terminos para el indice de busqueda: minusculas y sin tildes ("Canción" -> "cancion")
+public class SearchTokenizer {
+
+    // Terminos de una letra ("y", "a", "o") aparecen en casi todos los mensajes y no sirven para buscar
+    public static final int MIN_TERM_LENGTH = 2;
+    // Palabras muy largas (enlaces, codigos) no se indexan enteras
+    public static final int MAX_TERM_LENGTH = 40;
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private SearchTokenizer() {
+    }
+
+    public static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(text.toLowerCase(Locale.ROOT), Normalizer.Form.NFD);
+        return DIACRITICS.matcher(decomposed).replaceAll("");
+    }
+
+    // Terminos distintos en orden de aparicion
+    public static Set<String> tokenize(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        for (String term : SEPARATORS.split(normalize(text))) {
+            if (term.length() < MIN_TERM_LENGTH) {
+                continue;
+            }
+            terms.add(term.length() > MAX_TERM_LENGTH ? term.substring(0, MAX_TERM_LENGTH) : term);
+        }
+        return terms;
+    }
+}
@@ -0,0 +1,159 @@
+package utils;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+public class TimestampFormatter {
+
+    private static final long MINUTE_MS = 60_000L;
+
+    // Cache de acceso directo por minuto: tamaño potencia de 2 para indexar con una mascara
+    private static final int CACHE_SIZE = 512;
+    private static final int CACHE_MASK = CACHE_SIZE - 1;
+
+    private static final TimestampFormatter instance = new TimestampFormatter();
+
+    private final long[] cachedMinutes = new long[CACHE_SIZE];
+    private final String[] cachedTexts = new String[CACHE_SIZE];
+
+    // Un juego de formateadores por idioma, se reutilizan en vez de crearlos en cada bind
+    private final Map<Locale, SimpleDateFormat[]> formattersByLocale = new HashMap<>();
+    private final Date reusableDate = new Date();
+
+    private Locale locale;
+    private TimeZone timeZone;
+    private int zoneOffset;
+    private long nextZoneCheck;
+    private SimpleDateFormat hourFormat;
+    private SimpleDateFormat dayFormat;
+    private SimpleDateFormat dayYearFormat;
+
+    // Fronteras de dia precalculadas; se recalculan al pasar la medianoche o al cambiar la zona horaria
+    private long startOfToday;
+    private long startOfYesterday;
+    private long startOfTomorrow;
+    private long startOfYear;
+    // La capa Android la sustituye por la de los recursos de la app
+    private String yesterdayLabel = "Ayer";
+
+    public static TimestampFormatter getInstance() {
+        return instance;
+    }
+
+    public TimestampFormatter() {
+        clearCache();
+    }
+
+    public synchronized void setYesterdayLabel(String label) {
+        if (!label.equals(yesterdayLabel)) {
+            yesterdayLabel = label;
+            clearCache();
+        }
+    }
+
+    // Hora del mensaje: "HH:mm" si es de hoy, "Ayer HH:mm" o la fecha delante si es anterior
+    public String formatMessageTime(long timestamp) {
+        return formatMessageTime(timestamp, System.currentTimeMillis());
+    }
+
+    // Con el reloj como parametro para las pruebas
+    synchronized String formatMessageTime(long timestamp, long now) {
+        if (now >= startOfTomorrow || Locale.getDefault() != locale || zoneChanged(now)) {
+            refresh(now);
+        }
+
+        long minute = Math.floorDiv(timestamp, MINUTE_MS);
+        int index = (int) (minute & CACHE_MASK);
+        if (cachedMinutes[index] == minute) {
+            return cachedTexts[index];
+        }
+
+        String text = buildText(timestamp);
+        cachedMinutes[index] = minute;
+        cachedTexts[index] = text;
+        return text;
+    }
+
+    private String buildText(long timestamp) {
+        reusableDate.setTime(timestamp);
+        String hour = hourFormat.format(reusableDate);
+
+        if (timestamp >= startOfToday && timestamp < startOfTomorrow) {
+            return hour;
+        }
+        if (timestamp >= startOfYesterday && timestamp < startOfToday) {
+            return yesterdayLabel + " " + hour;
+        }
+        SimpleDateFormat format = timestamp >= startOfYear ? dayFormat : dayYearFormat;
+        return format.format(reusableDate) + " " + hour;
+    }
+
+    // Un viaje o el cambio de hora mueven las fronteras de dia sin pasar la medianoche. TimeZone.getDefault()
+    // devuelve una copia, asi que se consulta como mucho una vez por minuto y no en cada bind
+    private boolean zoneChanged(long now) {
+        if (now < nextZoneCheck) {
+            return false;
+        }
+        nextZoneCheck = now + MINUTE_MS;
+        TimeZone currentZone = TimeZone.getDefault();
+        return !currentZone.getID().equals(timeZone.getID()) || currentZone.getOffset(now) != zoneOffset;
+    }
+
+    private void refresh(long now) {
+        Locale currentLocale = Locale.getDefault();
+        TimeZone currentZone = TimeZone.getDefault();
+
+        SimpleDateFormat[] formatters = formattersByLocale.get(currentLocale);
+        if (formatters == null) {
+            formatters = new SimpleDateFormat[]{
+                    new SimpleDateFormat("HH:mm", currentLocale),
+                    new SimpleDateFormat("d MMM", currentLocale),
+                    new SimpleDateFormat("d MMM yyyy", currentLocale)
+            };
+            formattersByLocale.put(currentLocale, formatters);
+        }
+        for (SimpleDateFormat format : formatters) {
+            format.setTimeZone(currentZone);
+        }
+
+        locale = currentLocale;
+        timeZone = currentZone;
+        zoneOffset = currentZone.getOffset(now);
+        nextZoneCheck = now + MINUTE_MS;
+        hourFormat = formatters[0];
+        dayFormat = formatters[1];
+        dayYearFormat = formatters[2];
+
+        Calendar calendar = Calendar.getInstance(timeZone, locale);
+        calendar.setTimeInMillis(now);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        startOfToday = calendar.getTimeInMillis();
+
+        calendar.add(Calendar.DAY_OF_YEAR, -1);
+        startOfYesterday = calendar.getTimeInMillis();
+
+        calendar.add(Calendar.DAY_OF_YEAR, 2);
+        startOfTomorrow = calendar.getTimeInMillis();
+
+        calendar.setTimeInMillis(startOfToday);
+        calendar.set(Calendar.DAY_OF_YEAR, 1);
+        startOfYear = calendar.getTimeInMillis();
+
+        // Las etiquetas dependen del dia actual, la zona y el idioma, asi que la cache deja de valer
+        clearCache();
+    }
+
+    private void clearCache() {
+        Arrays.fill(cachedMinutes, Long.MIN_VALUE);
+        Arrays.fill(cachedTexts, null);
+    }
+}
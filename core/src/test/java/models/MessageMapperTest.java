@@ -0,0 +1,109 @@
+package models;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class MessageMapperTest {
+
+    private static Message imagen() {
+        Message message = new Message("m1", "yo", "otro", "", 1_700_000_000_123L);
+        message.setRead(true);
+        message.setType(Message.TYPE_IMAGE);
+        message.setImageUrl("https://example.com/foto.jpg");
+        message.setThumbnail("data:image/jpeg;base64,AAAA");
+        message.setImageWidth(1080);
+        message.setImageHeight(1920);
+        return message;
+    }
+
+    private static void assertSameMessage(Message expected, Message actual) {
+        assertEquals(expected.getMessageId(), actual.getMessageId());
+        assertEquals(expected.getSenderId(), actual.getSenderId());
+        assertEquals(expected.getReceiverId(), actual.getReceiverId());
+        assertEquals(expected.getMessage(), actual.getMessage());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.isRead(), actual.isRead());
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getImageUrl(), actual.getImageUrl());
+        assertEquals(expected.getThumbnail(), actual.getThumbnail());
+        assertEquals(expected.getImageWidth(), actual.getImageWidth());
+        assertEquals(expected.getImageHeight(), actual.getImageHeight());
+    }
+
+    @Test
+    public void roundTrip_keepsEveryField() {
+        Message original = imagen();
+
+        assertSameMessage(original, MessageMapper.fromMap(MessageMapper.toMap(original), "otro-id"));
+    }
+
+    @Test
+    public void roundTrip_textMessage() {
+        Message original = new Message("m2", "yo", "otro", "Hola, ¿qué tal?", 42L);
+
+        assertSameMessage(original, MessageMapper.fromMap(MessageMapper.toMap(original), null));
+    }
+
+    @Test
+    public void toMap_usesTheFirestoreFieldNames() {
+        Map<String, Object> map = MessageMapper.toMap(imagen());
+
+        assertEquals("m1", map.get("messageId"));
+        assertEquals(1_700_000_000_123L, map.get("timestamp"));
+        assertEquals(true, map.get("read"));
+        assertEquals(1080, map.get("imageWidth"));
+    }
+
+    @Test
+    public void fromMap_documentIdWhenTheFieldIsMissing() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("message", "hola");
+
+        Message message = MessageMapper.fromMap(data, "doc-7");
+
+        assertEquals("doc-7", message.getMessageId());
+        assertEquals(0L, message.getTimestamp());
+        assertFalse(message.isRead());
+    }
+
+    @Test
+    public void fromMap_acceptsNumbersOfAnyType() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("timestamp", 1234.0);
+        data.put("imageWidth", 640L);
+        data.put("messageId", 5);
+
+        Message message = MessageMapper.fromMap(data, "doc");
+
+        assertEquals(1234L, message.getTimestamp());
+        assertEquals(640, message.getImageWidth());
+        assertEquals("doc", message.getMessageId());
+    }
+
+    @Test
+    public void fromMap_nullData() {
+        assertNull(MessageMapper.fromMap(null, "doc"));
+        assertNull(MessageMapper.bucketFromMap(null));
+    }
+
+    @Test
+    public void bucketRoundTrip() {
+        Message primero = new Message("a", "yo", "otro", "uno", 100L);
+        Message ultimo = imagen();
+        MessageBucket original = new MessageBucket(Arrays.asList(primero, ultimo));
+
+        MessageBucket bucket = MessageMapper.bucketFromMap(MessageMapper.toMap(original));
+
+        assertEquals(original.getFirstTimestamp(), bucket.getFirstTimestamp());
+        assertEquals(original.getLastTimestamp(), bucket.getLastTimestamp());
+        assertEquals(2, bucket.getCount());
+        assertEquals(2, bucket.getMessages().size());
+        assertSameMessage(primero, bucket.getMessages().get(0));
+        assertSameMessage(ultimo, bucket.getMessages().get(1));
+    }
+}
@@ -0,0 +1,52 @@
+package models;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class UserMapperTest {
+
+    @Test
+    public void roundTrip_keepsEveryField() {
+        User original = new User("uid-1", "ana@example.com", "Ana Pérez", "https://example.com/ana.jpg");
+        original.setLastSeen(1_700_000_000_000L);
+
+        User user = UserMapper.fromMap(UserMapper.toMap(original), "otro-id");
+
+        assertEquals("uid-1", user.getUid());
+        assertEquals("ana@example.com", user.getEmail());
+        assertEquals("Ana Pérez", user.getDisplayName());
+        assertEquals("ana pérez", user.getDisplayNameLower());
+        assertEquals("https://example.com/ana.jpg", user.getPhotoUrl());
+        assertEquals(1_700_000_000_000L, user.getLastSeen());
+    }
+
+    @Test
+    public void toMap_writesTheLowercaseNameForPrefixSearch() {
+        Map<String, Object> map = UserMapper.toMap(new User("uid-1", null, "ÁLVARO", null));
+
+        assertEquals("álvaro", map.get(UserMapper.DISPLAY_NAME_LOWER));
+    }
+
+    @Test
+    public void fromMap_oldProfileWithoutLowercaseName() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("displayName", "Ana");
+        data.put("lastSeen", 99.0);
+
+        User user = UserMapper.fromMap(data, "uid-doc");
+
+        assertEquals("uid-doc", user.getUid());
+        assertEquals("Ana", user.getDisplayName());
+        assertNull(user.getDisplayNameLower());
+        assertEquals(99L, user.getLastSeen());
+    }
+
+    @Test
+    public void fromMap_nullData() {
+        assertNull(UserMapper.fromMap(null, "uid"));
+    }
+}
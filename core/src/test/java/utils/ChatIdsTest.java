@@ -0,0 +1,19 @@
+package utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ChatIdsTest {
+
+    @Test
+    public void chatId_isTheSameWhoeverOpensIt() {
+        assertEquals(ChatIds.chatId("ana", "luis"), ChatIds.chatId("luis", "ana"));
+    }
+
+    @Test
+    public void chatId_putsTheSmallerUidFirst() {
+        assertEquals("ana_luis", ChatIds.chatId("luis", "ana"));
+        assertEquals("A_a", ChatIds.chatId("a", "A"));
+    }
+}
@@ -0,0 +1,125 @@
+package utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyTrackerTest {
+
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void bucketOf_powersOfTwoOfAMillisecond() {
+        assertEquals(0, LatencyTracker.bucketOf(0));
+        assertEquals(0, LatencyTracker.bucketOf(MS - 1));
+        assertEquals(1, LatencyTracker.bucketOf(MS));
+        assertEquals(2, LatencyTracker.bucketOf(2 * MS));
+        assertEquals(2, LatencyTracker.bucketOf(3 * MS));
+        assertEquals(3, LatencyTracker.bucketOf(4 * MS));
+        assertEquals(11, LatencyTracker.bucketOf(1500 * MS));
+    }
+
+    @Test
+    public void bucketOf_lastBucketTakesEverythingAbove() {
+        int ultimo = LatencyTracker.HISTOGRAM_BUCKETS - 1;
+        assertEquals(ultimo, LatencyTracker.bucketOf((1L << (ultimo - 1)) * MS));
+        assertEquals(ultimo, LatencyTracker.bucketOf(3_600_000L * MS));
+        assertEquals(">=16384 ms", LatencyTracker.bucketLabel(ultimo));
+        assertEquals("<1 ms", LatencyTracker.bucketLabel(0));
+        assertEquals("<4 ms", LatencyTracker.bucketLabel(2));
+    }
+
+    @Test
+    public void stats_nearestRankPercentiles() {
+        LatencyTracker tracker = new LatencyTracker();
+        for (int i = 100; i >= 1; i--) {
+            tracker.record(LatencyTracker.Metric.SEND_TO_ACK, i * MS);
+        }
+
+        LatencyTracker.Stats stats = tracker.stats(LatencyTracker.Metric.SEND_TO_ACK);
+
+        assertEquals(100, stats.count);
+        assertEquals(100, stats.total);
+        assertEquals(50 * MS + MS / 2, stats.mean);
+        assertEquals(50 * MS, stats.p50);
+        assertEquals(90 * MS, stats.p90);
+        assertEquals(99 * MS, stats.p99);
+        assertEquals(100 * MS, stats.max);
+    }
+
+    @Test
+    public void stats_keepOnlyTheLastCapacitySamples() {
+        LatencyTracker tracker = new LatencyTracker();
+        for (int i = 0; i < LatencyTracker.CAPACITY; i++) {
+            tracker.record(LatencyTracker.Metric.FIRST_FRAME, 1000 * MS);
+        }
+        for (int i = 0; i < LatencyTracker.CAPACITY; i++) {
+            tracker.record(LatencyTracker.Metric.FIRST_FRAME, 5 * MS);
+        }
+
+        LatencyTracker.Stats stats = tracker.stats(LatencyTracker.Metric.FIRST_FRAME);
+        long[] histogram = tracker.histogram(LatencyTracker.Metric.FIRST_FRAME);
+
+        assertEquals(LatencyTracker.CAPACITY, stats.count);
+        assertEquals(2L * LatencyTracker.CAPACITY, stats.total);
+        assertEquals(5 * MS, stats.max);
+        // El histograma es acumulado, no se pisa con el anillo
+        assertEquals(LatencyTracker.CAPACITY, histogram[LatencyTracker.bucketOf(1000 * MS)]);
+        assertEquals(LatencyTracker.CAPACITY, histogram[LatencyTracker.bucketOf(5 * MS)]);
+    }
+
+    @Test
+    public void stats_emptyAndReset() {
+        LatencyTracker tracker = new LatencyTracker();
+        assertEquals(0, tracker.stats(LatencyTracker.Metric.SERVER_ECHO).count);
+
+        tracker.record(LatencyTracker.Metric.SERVER_ECHO, 0);
+        tracker.record(LatencyTracker.Metric.SERVER_ECHO, -1);
+        assertEquals(1, tracker.stats(LatencyTracker.Metric.SERVER_ECHO).count);
+
+        tracker.reset();
+        assertEquals(0, tracker.stats(LatencyTracker.Metric.SERVER_ECHO).count);
+        assertEquals(0, tracker.histogram(LatencyTracker.Metric.SERVER_ECHO)[0]);
+    }
+
+    @Test
+    public void stop_withoutStartRecordsNothing() {
+        LatencyTracker tracker = new LatencyTracker();
+
+        tracker.stop(LatencyTracker.Metric.SEND_TO_ACK, "m1");
+
+        assertEquals(0, tracker.stats(LatencyTracker.Metric.SEND_TO_ACK).count);
+    }
+
+    @Test
+    public void start_keepsTheOldestStartForTheSameKey() {
+        LatencyTracker tracker = new LatencyTracker();
+        long inicio = LatencyTracker.now() - 50 * MS;
+        tracker.start(LatencyTracker.Metric.SEND_TO_ACK, "m1", inicio);
+        tracker.start(LatencyTracker.Metric.SEND_TO_ACK, "m1");
+
+        tracker.stop(LatencyTracker.Metric.SEND_TO_ACK, "m1");
+        tracker.stop(LatencyTracker.Metric.SEND_TO_ACK, "m1");
+
+        LatencyTracker.Stats stats = tracker.stats(LatencyTracker.Metric.SEND_TO_ACK);
+        assertEquals(1, stats.count);
+        assertTrue(stats.max >= 50 * MS);
+    }
+
+    @Test
+    public void start_whenFullEvictsOnlyTheOldest() {
+        LatencyTracker tracker = new LatencyTracker();
+        long inicio = LatencyTracker.now() - 1000 * MS;
+        for (int i = 0; i <= LatencyTracker.MAX_PENDING; i++) {
+            tracker.start(LatencyTracker.Metric.SEND_TO_ACK, "m" + i, inicio + i);
+        }
+
+        tracker.stop(LatencyTracker.Metric.SEND_TO_ACK, "m0");
+        assertEquals(0, tracker.stats(LatencyTracker.Metric.SEND_TO_ACK).count);
+
+        for (int i = 1; i <= LatencyTracker.MAX_PENDING; i++) {
+            tracker.stop(LatencyTracker.Metric.SEND_TO_ACK, "m" + i);
+        }
+        assertEquals(LatencyTracker.MAX_PENDING, tracker.stats(LatencyTracker.Metric.SEND_TO_ACK).total);
+    }
+}
@@ -0,0 +1,124 @@
+package utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import models.Message;
+
+import static org.junit.Assert.*;
+
+public class MessageBucketsTest {
+
+    private static final long AHORA = 1_800_000_000_000L;
+    private static final long ANTIGUO = AHORA - MessageBuckets.SEAL_AGE_MS - 60_000L;
+
+    // Cola de mensajes ya leidos y antiguos, uno por segundo
+    private static List<Message> cola(int count) {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Message message = new Message("m" + i, "yo", "otro", "mensaje " + i, ANTIGUO - (count - i) * 1000L);
+            message.setRead(true);
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    @Test
+    public void isSealed_onlyOlderThanTheSealAge() {
+        assertTrue(MessageBuckets.isSealed(ANTIGUO, AHORA));
+        assertFalse(MessageBuckets.isSealed(AHORA - MessageBuckets.SEAL_AGE_MS, AHORA));
+        assertFalse(MessageBuckets.isSealed(AHORA, AHORA));
+    }
+
+    @Test
+    public void sealablePrefix_takesTheWholeQueueWhenAllIsSealable() {
+        List<Message> cola = cola(MessageBuckets.MIN_BUCKET_SIZE + 10);
+
+        assertEquals(cola.size(), MessageBuckets.sealablePrefix(cola, AHORA).size());
+    }
+
+    @Test
+    public void sealablePrefix_isCappedAtTheBucketSize() {
+        List<Message> prefix = MessageBuckets.sealablePrefix(cola(MessageBuckets.BUCKET_SIZE + 50), AHORA);
+
+        assertEquals(MessageBuckets.BUCKET_SIZE, prefix.size());
+        assertEquals("m0", prefix.get(0).getMessageId());
+    }
+
+    @Test
+    public void sealablePrefix_belowTheMinimumIsEmpty() {
+        assertTrue(MessageBuckets.sealablePrefix(cola(MessageBuckets.MIN_BUCKET_SIZE - 1), AHORA).isEmpty());
+        assertTrue(MessageBuckets.sealablePrefix(new ArrayList<>(), AHORA).isEmpty());
+    }
+
+    @Test
+    public void sealablePrefix_stopsAtTheFirstUnreadMessage() {
+        List<Message> cola = cola(MessageBuckets.MIN_BUCKET_SIZE * 2);
+        cola.get(MessageBuckets.MIN_BUCKET_SIZE + 5).setRead(false);
+
+        assertEquals(MessageBuckets.MIN_BUCKET_SIZE + 5, MessageBuckets.sealablePrefix(cola, AHORA).size());
+
+        cola.get(3).setRead(false);
+        assertTrue(MessageBuckets.sealablePrefix(cola, AHORA).isEmpty());
+    }
+
+    @Test
+    public void sealablePrefix_stopsAtTheFirstRecentMessage() {
+        List<Message> cola = cola(MessageBuckets.MIN_BUCKET_SIZE * 2);
+        cola.get(MessageBuckets.MIN_BUCKET_SIZE).setTimestamp(AHORA - 1000L);
+
+        assertEquals(MessageBuckets.MIN_BUCKET_SIZE, MessageBuckets.sealablePrefix(cola, AHORA).size());
+    }
+
+    @Test
+    public void sealablePrefix_stopsAtAnImageWithoutUrl() {
+        List<Message> cola = cola(MessageBuckets.MIN_BUCKET_SIZE * 2);
+        Message imagen = cola.get(MessageBuckets.MIN_BUCKET_SIZE + 1);
+        imagen.setType(Message.TYPE_IMAGE);
+
+        assertEquals(MessageBuckets.MIN_BUCKET_SIZE + 1, MessageBuckets.sealablePrefix(cola, AHORA).size());
+
+        imagen.setImageUrl("https://example.com/foto.jpg");
+        assertEquals(cola.size(), MessageBuckets.sealablePrefix(cola, AHORA).size());
+    }
+
+    @Test
+    public void sealablePrefix_staysUnderTheDocumentSizeLimit() {
+        List<Message> cola = cola(MessageBuckets.BUCKET_SIZE);
+        StringBuilder largo = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            largo.append('x');
+        }
+        for (Message message : cola) {
+            message.setMessage(largo.toString());
+        }
+
+        List<Message> prefix = MessageBuckets.sealablePrefix(cola, AHORA);
+
+        assertTrue(prefix.size() >= MessageBuckets.MIN_BUCKET_SIZE);
+        assertTrue(prefix.size() < MessageBuckets.BUCKET_SIZE);
+        assertTrue(prefix.size() * 5000L * 2 <= MessageBuckets.MAX_BUCKET_BYTES);
+    }
+
+    @Test
+    public void isCompacted_usesTimestampThenId() {
+        assertFalse(MessageBuckets.isCompacted(100, "m1", null, null));
+        assertTrue(MessageBuckets.isCompacted(99, "z", 100L, "m5"));
+        assertFalse(MessageBuckets.isCompacted(101, "a", 100L, "m5"));
+        assertTrue(MessageBuckets.isCompacted(100, "m5", 100L, "m5"));
+        assertTrue(MessageBuckets.isCompacted(100, "m4", 100L, "m5"));
+        assertFalse(MessageBuckets.isCompacted(100, "m6", 100L, "m5"));
+    }
+
+    @Test
+    public void before_keepsOnlyMessagesBeforeTheCursor() {
+        List<Message> bucket = cola(10);
+
+        List<Message> anteriores = MessageBuckets.before(bucket, bucket.get(4));
+
+        assertEquals(4, anteriores.size());
+        assertEquals("m3", anteriores.get(3).getMessageId());
+    }
+}
@@ -0,0 +1,46 @@
+package utils;
+
+import org.junit.Test;
+
+import models.Message;
+
+import static org.junit.Assert.*;
+
+public class MessageDiffTest {
+
+    private static Message message() {
+        return new Message("m1", "yo", "otro", "hola", 100);
+    }
+
+    @Test
+    public void sameItem_comparesOnlyTheId() {
+        Message otroTexto = new Message("m1", "yo", "otro", "adios", 200);
+
+        assertTrue(MessageDiff.sameItem(message(), otroTexto));
+        assertFalse(MessageDiff.sameItem(message(), new Message("m2", "yo", "otro", "hola", 100)));
+    }
+
+    @Test
+    public void sameContents_equalMessages() {
+        assertTrue(MessageDiff.sameContents(message(), message()));
+    }
+
+    @Test
+    public void sameContents_detectsReadChange() {
+        Message leido = message();
+        leido.setRead(true);
+
+        assertFalse(MessageDiff.sameContents(message(), leido));
+    }
+
+    @Test
+    public void sameContents_detectsTextAndImageChanges() {
+        Message editado = message();
+        editado.setMessage("hola!");
+        Message conImagen = message();
+        conImagen.setImageUrl("https://example.com/m1.jpg");
+
+        assertFalse(MessageDiff.sameContents(message(), editado));
+        assertFalse(MessageDiff.sameContents(message(), conImagen));
+    }
+}
@@ -0,0 +1,111 @@
+package utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import models.Message;
+
+import static org.junit.Assert.*;
+
+public class MessageOrderingTest {
+
+    private static Message message(String id, long timestamp) {
+        return new Message(id, "yo", "otro", "texto " + id, timestamp);
+    }
+
+    private static List<String> ids(List<Message> messages) {
+        List<String> ids = new ArrayList<>();
+        for (Message message : messages) {
+            ids.add(message.getMessageId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void merge_interleavesByTimestampAndId() {
+        List<Message> current = Arrays.asList(message("a", 100), message("c", 300), message("e", 500));
+        List<Message> incoming = Arrays.asList(message("b", 200), message("d", 300), message("f", 600));
+
+        List<Message> merged = MessageOrdering.merge(current, incoming);
+
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e", "f"), ids(merged));
+    }
+
+    @Test
+    public void merge_incomingVersionWins() {
+        Message original = message("b", 200);
+        Message leido = new Message(original);
+        leido.setRead(true);
+
+        List<Message> merged = MessageOrdering.merge(
+                Arrays.asList(message("a", 100), original, message("c", 300)),
+                Collections.singletonList(leido));
+
+        assertEquals(Arrays.asList("a", "b", "c"), ids(merged));
+        assertSame(leido, merged.get(1));
+    }
+
+    @Test
+    public void merge_withEmptyLists() {
+        List<Message> some = Arrays.asList(message("a", 100), message("b", 200));
+
+        assertEquals(ids(some), ids(MessageOrdering.merge(some, Collections.emptyList())));
+        assertEquals(ids(some), ids(MessageOrdering.merge(Collections.emptyList(), some)));
+        assertTrue(MessageOrdering.merge(Collections.emptyList(), Collections.emptyList()).isEmpty());
+    }
+
+    @Test
+    public void insertionIndex_newestGoesAtTheEnd() {
+        List<Message> messages = Arrays.asList(message("a", 100), message("b", 200), message("c", 300));
+
+        assertEquals(3, MessageOrdering.insertionIndex(messages, message("d", 400)));
+        assertEquals(0, MessageOrdering.insertionIndex(Collections.emptyList(), message("d", 400)));
+    }
+
+    @Test
+    public void insertionIndex_lateMessageGoesInItsPlace() {
+        List<Message> messages = Arrays.asList(message("a", 100), message("b", 200), message("c", 300));
+
+        assertEquals(0, MessageOrdering.insertionIndex(messages, message("z", 50)));
+        assertEquals(2, MessageOrdering.insertionIndex(messages, message("z", 250)));
+    }
+
+    @Test
+    public void insertionIndex_sameTimestampOrdersById() {
+        List<Message> messages = Arrays.asList(message("a", 100), message("m2", 200), message("m4", 200), message("z", 300));
+
+        assertEquals(1, MessageOrdering.insertionIndex(messages, message("m1", 200)));
+        assertEquals(2, MessageOrdering.insertionIndex(messages, message("m3", 200)));
+        assertEquals(3, MessageOrdering.insertionIndex(messages, message("m5", 200)));
+    }
+
+    @Test
+    public void insertionIndex_agreesWithMerge() {
+        List<Message> messages = new ArrayList<>();
+        String[] llegada = {"m5", "m1", "m3", "m2", "m4", "m0"};
+        long[] tiempos = {300, 100, 200, 200, 300, 100};
+        for (int i = 0; i < llegada.length; i++) {
+            Message message = message(llegada[i], tiempos[i]);
+            messages.add(MessageOrdering.insertionIndex(messages, message), message);
+        }
+
+        List<Message> ordenados = new ArrayList<>(messages);
+        ordenados.sort(MessageOrdering.COMPARATOR);
+        assertEquals(ids(ordenados), ids(messages));
+        assertEquals(Arrays.asList("m0", "m1", "m2", "m3", "m4", "m5"), ids(messages));
+    }
+
+    @Test
+    public void isAtOrBefore_comparesTimestampThenId() {
+        assertFalse(MessageOrdering.isAtOrBefore(100, "m1", null, null));
+        assertTrue(MessageOrdering.isAtOrBefore(99, "z", 100L, "m5"));
+        assertFalse(MessageOrdering.isAtOrBefore(101, "a", 100L, "m5"));
+        assertTrue(MessageOrdering.isAtOrBefore(100, "m5", 100L, "m5"));
+        assertFalse(MessageOrdering.isAtOrBefore(100, "m6", 100L, "m5"));
+        assertFalse(MessageOrdering.isAtOrBefore(100, "m1", 100L, null));
+    }
+}
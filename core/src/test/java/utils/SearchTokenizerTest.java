@@ -0,0 +1,53 @@
+package utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class SearchTokenizerTest {
+
+    @Test
+    public void normalize_lowercasesAndStripsAccents() {
+        assertEquals("cancion", SearchTokenizer.normalize("Canción"));
+        assertEquals("pinguino nino", SearchTokenizer.normalize("PINGÜINO Niño"));
+        assertEquals("", SearchTokenizer.normalize(null));
+    }
+
+    @Test
+    public void tokenize_splitsOnPunctuationInOrder() {
+        Set<String> terms = SearchTokenizer.tokenize("¿Quedamos mañana, a las 8:30 en la estación?");
+
+        assertEquals(Arrays.asList("quedamos", "manana", "las", "30", "en", "la", "estacion"), new ArrayList<>(terms));
+    }
+
+    @Test
+    public void tokenize_dropsShortTermsAndDuplicates() {
+        Set<String> terms = SearchTokenizer.tokenize("y hola o HOLA a Hola");
+
+        assertEquals(Arrays.asList("hola"), new ArrayList<>(terms));
+    }
+
+    @Test
+    public void tokenize_truncatesLongTerms() {
+        StringBuilder largo = new StringBuilder();
+        for (int i = 0; i < SearchTokenizer.MAX_TERM_LENGTH + 10; i++) {
+            largo.append('x');
+        }
+
+        Set<String> terms = SearchTokenizer.tokenize(largo.toString());
+
+        assertEquals(1, terms.size());
+        assertEquals(SearchTokenizer.MAX_TERM_LENGTH, terms.iterator().next().length());
+    }
+
+    @Test
+    public void tokenize_emptyInput() {
+        assertTrue(SearchTokenizer.tokenize(null).isEmpty());
+        assertTrue(SearchTokenizer.tokenize("").isEmpty());
+        assertTrue(SearchTokenizer.tokenize("!! ?? ...").isEmpty());
+    }
+}
@@ -0,0 +1,125 @@
+package utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class TimestampFormatterTest {
+
+    private static final long MINUTE_MS = 60_000L;
+    private static final TimeZone MADRID = TimeZone.getTimeZone("Europe/Madrid");
+    private static final TimeZone TOKIO = TimeZone.getTimeZone("Asia/Tokyo");
+    private static final Locale ES = new Locale("es", "ES");
+
+    private TimeZone zonaOriginal;
+    private Locale localeOriginal;
+    private TimestampFormatter formatter;
+    // 15 de marzo de 2026, 12:00 en Madrid
+    private long ahora;
+
+    @Before
+    public void setUp() {
+        zonaOriginal = TimeZone.getDefault();
+        localeOriginal = Locale.getDefault();
+        TimeZone.setDefault(MADRID);
+        Locale.setDefault(ES);
+        formatter = new TimestampFormatter();
+        ahora = at(MADRID, 2026, Calendar.MARCH, 15, 12, 0);
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(zonaOriginal);
+        Locale.setDefault(localeOriginal);
+    }
+
+    private static long at(TimeZone zone, int year, int month, int day, int hour, int minute) {
+        Calendar calendar = Calendar.getInstance(zone);
+        calendar.clear();
+        calendar.set(year, month, day, hour, minute);
+        return calendar.getTimeInMillis();
+    }
+
+    private static String format(String pattern, TimeZone zone, long timestamp) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern, ES);
+        format.setTimeZone(zone);
+        return format.format(new Date(timestamp));
+    }
+
+    @Test
+    public void today_showsOnlyTheHour() {
+        assertEquals("00:00", formatter.formatMessageTime(at(MADRID, 2026, Calendar.MARCH, 15, 0, 0), ahora));
+        assertEquals("11:59", formatter.formatMessageTime(at(MADRID, 2026, Calendar.MARCH, 15, 11, 59), ahora));
+        assertEquals("23:59", formatter.formatMessageTime(at(MADRID, 2026, Calendar.MARCH, 15, 23, 59), ahora));
+    }
+
+    @Test
+    public void yesterday_usesTheLabel() {
+        assertEquals("Ayer 23:59", formatter.formatMessageTime(at(MADRID, 2026, Calendar.MARCH, 14, 23, 59), ahora));
+        assertEquals("Ayer 00:00", formatter.formatMessageTime(at(MADRID, 2026, Calendar.MARCH, 14, 0, 0), ahora));
+    }
+
+    @Test
+    public void yesterday_labelCanBeReplaced() {
+        long ayer = at(MADRID, 2026, Calendar.MARCH, 14, 18, 30);
+        assertEquals("Ayer 18:30", formatter.formatMessageTime(ayer, ahora));
+
+        formatter.setYesterdayLabel("Yesterday");
+
+        assertEquals("Yesterday 18:30", formatter.formatMessageTime(ayer, ahora));
+    }
+
+    @Test
+    public void olderDays_showTheDate() {
+        long anteayer = at(MADRID, 2026, Calendar.MARCH, 13, 23, 59);
+        long primeroDeAnio = at(MADRID, 2026, Calendar.JANUARY, 1, 0, 0);
+        long anioPasado = at(MADRID, 2025, Calendar.DECEMBER, 31, 23, 59);
+
+        assertEquals(format("d MMM", MADRID, anteayer) + " 23:59", formatter.formatMessageTime(anteayer, ahora));
+        assertEquals(format("d MMM", MADRID, primeroDeAnio) + " 00:00", formatter.formatMessageTime(primeroDeAnio, ahora));
+        assertEquals(format("d MMM yyyy", MADRID, anioPasado) + " 23:59", formatter.formatMessageTime(anioPasado, ahora));
+    }
+
+    @Test
+    public void midnight_movesTheBoundaries() {
+        long ultimoMinuto = at(MADRID, 2026, Calendar.MARCH, 15, 23, 59);
+        assertEquals("23:59", formatter.formatMessageTime(ultimoMinuto, ahora));
+
+        long manana = at(MADRID, 2026, Calendar.MARCH, 16, 0, 1);
+
+        assertEquals("Ayer 23:59", formatter.formatMessageTime(ultimoMinuto, manana));
+    }
+
+    @Test
+    public void zoneChange_isPickedUpBeforeMidnight() {
+        // Las 11:30 de Madrid son las 19:30 de Tokio, el mismo dia
+        long mensaje = at(MADRID, 2026, Calendar.MARCH, 15, 11, 30);
+        assertEquals("11:30", formatter.formatMessageTime(mensaje, ahora));
+
+        TimeZone.setDefault(TOKIO);
+        long despues = ahora + MINUTE_MS;
+
+        assertEquals("19:30", formatter.formatMessageTime(mensaje, despues));
+    }
+
+    @Test
+    public void dstChange_recomputesTheHours() {
+        // 29 de marzo de 2026: Madrid pasa de +1 a +2 a las 02:00
+        long antes = at(MADRID, 2026, Calendar.MARCH, 29, 1, 0);
+        long mensaje = at(MADRID, 2026, Calendar.MARCH, 29, 0, 30);
+        assertEquals("00:30", formatter.formatMessageTime(mensaje, antes));
+
+        long despues = at(MADRID, 2026, Calendar.MARCH, 29, 3, 30);
+
+        assertEquals("00:30", formatter.formatMessageTime(mensaje, despues));
+        assertEquals("03:30", formatter.formatMessageTime(despues, despues));
+    }
+}